@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Random;
+
+import org.objectweb.fractal.adl.ADLException;
+import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.NodeFactory;
+import org.objectweb.fractal.adl.merger.NodeMerger;
+import org.ow2.mind.adl.implementation.ImplementationLocator;
+import org.ow2.mind.cli.InvalidCommandLineException;
+
+/**
+ * Synthetic BASE and HEAD architectures for the benchmarks, loaded once by the real compiler front-end.
+ *
+ * The architecture is a tree of "depth" levels of composites with "fanOut" sub-components each,
+ * down to primitives. Every instance has its own definition, so that no comparison is shared.
+ * Sibling sub-components are chained by bindings with the probability "bindingDensity".
+ * In HEAD, each definition is modified with the probability "changeRatio"
+ * (source content, added interface, removed binding or sub-component).
+ *
+ * Generation only depends on the parameters: results of successive runs, or of different commits, are comparable.
+ */
+public class BenchmarkArchitecture {
+
+	public static final String TOP_LEVEL_NAME = "bench.Root";
+
+	private static final long SEED = 20140901L;
+
+	private final int fanOut;
+	private final int depth;
+	private final double bindingDensity;
+	private final double changeRatio;
+
+	private File rootDir;
+	private Launcher launcher;
+	private Definition baseDefinition;
+	private Definition headDefinition;
+
+	public BenchmarkArchitecture(int fanOut, int depth, double bindingDensity, double changeRatio) {
+		this.fanOut = fanOut;
+		this.depth = depth;
+		this.bindingDensity = bindingDensity;
+		this.changeRatio = changeRatio;
+	}
+
+	/**
+	 * Generate the sources in a temporary directory, and load both architectures.
+	 */
+	public void setUp() throws IOException, InvalidCommandLineException, ADLException {
+		rootDir = File.createTempFile("mind-diff-bench", "");
+		if (!rootDir.delete() || !rootDir.mkdirs())
+			throw new IOException("Could not create " + rootDir);
+
+		File baseDir = new File(rootDir, "base");
+		File headDir = new File(rootDir, "head");
+		File outDir = new File(rootDir, "out");
+		outDir.mkdirs();
+
+		for (File dir : new File[] { baseDir, headDir })
+			write(new File(dir, "bench/Itf.itf"), "interface bench.Itf {\n\tvoid run(void);\n}\n");
+		generate(baseDir, headDir, TOP_LEVEL_NAME, 0);
+
+		launcher = new Launcher();
+		launcher.init("--base-src-path=" + baseDir.getPath(), "--head-src-path=" + headDir.getPath(),
+				"--out-path=" + outDir.getPath(), TOP_LEVEL_NAME);
+		launcher.baseAdlName = TOP_LEVEL_NAME;
+		launcher.headAdlName = TOP_LEVEL_NAME;
+
+		Definition[] archDefs = launcher.loadArchitectures();
+		baseDefinition = archDefs[0];
+		headDefinition = archDefs[1];
+	}
+
+	public void tearDown() {
+		delete(rootDir);
+	}
+
+	public ArchitecturesComparator newArchitecturesComparator() {
+		return launcher.newArchitecturesComparator();
+	}
+
+	public Definition getBaseDefinition() {
+		return baseDefinition;
+	}
+
+	public Definition getHeadDefinition() {
+		return headDefinition;
+	}
+
+	public Map<Object, Object> getBaseContext() {
+		return launcher.baseContext;
+	}
+
+	public Map<Object, Object> getHeadContext() {
+		return launcher.headContext;
+	}
+
+	public Loader getLoader() {
+		return launcher.loaderItf;
+	}
+
+	public NodeFactory getNodeFactory() {
+		return launcher.nodeFactoryItf;
+	}
+
+	public NodeMerger getNodeMerger() {
+		return launcher.nodeMergerItf;
+	}
+
+	public ImplementationLocator getImplementationLocator() {
+		return launcher.implementationLocatorItf;
+	}
+
+	private void generate(File baseDir, File headDir, String name, int level) throws IOException {
+		// same structure for BASE and HEAD, whatever the changes
+		Random structureRandom = new Random(SEED + name.hashCode());
+		Random changeRandom = new Random(SEED * 31 + name.hashCode());
+		boolean changed = changeRandom.nextDouble() < changeRatio;
+		int change = changeRandom.nextInt(3);
+
+		String simpleName = name.substring(name.lastIndexOf('.') + 1);
+		String path = name.replace('.', '/');
+
+		StringBuilder base = new StringBuilder();
+		StringBuilder head = new StringBuilder();
+
+		if (level < depth) {
+			base.append("composite ").append(name).append(" {\n");
+			base.append("\tprovides bench.Itf as s;\n");
+			base.append("\trequires optional bench.Itf as c;\n");
+			head.append(base);
+			if (changed && change == 1)
+				head.append("\trequires optional bench.Itf as extra;\n");
+
+			// HEAD may lose its last sub-component
+			int headFanOut = changed && change == 2 ? fanOut - 1 : fanOut;
+			for (int i = 0; i < fanOut; i++) {
+				String subName = (level == 0 ? "bench.D" : name) + "_" + i;
+				String line = "\tcontains " + subName + " as sub" + i + ";\n";
+				base.append(line);
+				if (i < headFanOut)
+					head.append(line);
+				generate(baseDir, headDir, subName, level + 1);
+			}
+
+			base.append("\tbinds this.s to sub0.s;\n");
+			head.append("\tbinds this.s to sub0.s;\n");
+			boolean bindingRemoved = false;
+			for (int i = 0; i + 1 < fanOut; i++) {
+				if (structureRandom.nextDouble() >= bindingDensity)
+					continue;
+				String line = "\tbinds sub" + i + ".c to sub" + (i + 1) + ".s;\n";
+				base.append(line);
+				// HEAD may lose its first binding between sub-components
+				boolean removed = changed && change == 0 && !bindingRemoved;
+				if (!removed && i + 1 < headFanOut)
+					head.append(line);
+				bindingRemoved |= removed;
+			}
+
+			base.append("}\n");
+			head.append("}\n");
+		} else {
+			base.append("primitive ").append(name).append(" {\n");
+			base.append("\tprovides bench.Itf as s;\n");
+			base.append("\trequires optional bench.Itf as c;\n");
+			head.append(base);
+			if (changed && change == 1)
+				head.append("\trequires optional bench.Itf as extra;\n");
+			base.append("\tsource ").append(simpleName).append(".c;\n}\n");
+			head.append("\tsource ").append(simpleName).append(".c;\n}\n");
+
+			String source = "void METH(s, run)(void) {\n}\n";
+			write(new File(baseDir, path + ".c"), source);
+			write(new File(headDir, path + ".c"), changed && change != 1 ? source + "/* changed */\n" : source);
+		}
+
+		write(new File(baseDir, path + ".adl"), base.toString());
+		write(new File(headDir, path + ".adl"), head.toString());
+	}
+
+	private static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void delete(File file) {
+		if (file == null)
+			return;
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.fractal.adl.ADLException;
+import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.interfaces.InterfaceContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.mind.CommonASTHelper;
+import org.ow2.mind.adl.ast.BindingContainer;
+
+/**
+ * Benchmarks of ArchitecturesComparator, on architectures loaded once per trial.
+ *
+ * The comparator is created once per trial: compareDefinitionTrees clears its memo of compared pairs
+ * at each call, while the fingerprints and source hashes, computed during the warmup, stay cached
+ * as in a diff server. The measurements thus cover the comparison, not the reading of the sources.
+ *
+ * compareBindings and compareProvidedRequiredInterfaces fill a new result definition at each call:
+ * the results are created beforehand for each iteration, and these benchmarks are timed by batches
+ * of RESULTS_BATCH_SIZE calls (single shot time per batch).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ComparatorBenchmark {
+
+	@Param({ "4", "8" })
+	public int fanOut;
+
+	@Param({ "2", "3" })
+	public int depth;
+
+	@Param({ "0.5" })
+	public double bindingDensity;
+
+	@Param({ "0.0", "0.1" })
+	public double changeRatio;
+
+	/** Number of calls timed together by the benchmarks filling a result definition */
+	public static final int RESULTS_BATCH_SIZE = 1000;
+
+	private BenchmarkArchitecture architecture;
+	private ArchitecturesComparator archComparator;
+
+	/** Result definitions of the current iteration, and index of the next one to fill */
+	private BindingContainer[] bindingsResults;
+	private InterfaceContainer[] interfacesResults;
+	private int nextResult;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		architecture = new BenchmarkArchitecture(fanOut, depth, bindingDensity, changeRatio);
+		architecture.setUp();
+		archComparator = architecture.newArchitecturesComparator();
+	}
+
+	@Setup(Level.Iteration)
+	public void newResultDefinitions() {
+		bindingsResults = new BindingContainer[RESULTS_BATCH_SIZE];
+		interfacesResults = new InterfaceContainer[RESULTS_BATCH_SIZE];
+		for (int i = 0; i < RESULTS_BATCH_SIZE; i++) {
+			bindingsResults[i] = CommonASTHelper.turnsTo(newResultDefinition(), BindingContainer.class,
+					architecture.getNodeFactory(), architecture.getNodeMerger());
+			interfacesResults[i] = CommonASTHelper.turnsTo(newResultDefinition(), InterfaceContainer.class,
+					architecture.getNodeFactory(), architecture.getNodeMerger());
+		}
+		nextResult = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		archComparator.shutdown();
+		architecture.tearDown();
+	}
+
+	@Benchmark
+	public Definition compareDefinitionTrees() throws ADLException {
+		return archComparator.compareDefinitionTrees(architecture.getBaseDefinition(), architecture.getHeadDefinition(),
+				architecture.getBaseContext(), architecture.getHeadContext());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, batchSize = RESULTS_BATCH_SIZE)
+	@Measurement(iterations = 10, batchSize = RESULTS_BATCH_SIZE)
+	public BindingContainer compareBindings() throws ADLException {
+		BindingContainer result = bindingsResults[nextResult++];
+		return archComparator.compareBindings((BindingContainer) architecture.getBaseDefinition(), (BindingContainer) architecture.getHeadDefinition(),
+				architecture.getBaseContext(), architecture.getHeadContext(), result);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, batchSize = RESULTS_BATCH_SIZE)
+	@Measurement(iterations = 10, batchSize = RESULTS_BATCH_SIZE)
+	public Definition compareProvidedRequiredInterfaces() {
+		InterfaceContainer result = interfacesResults[nextResult++];
+		return archComparator.compareProvidedRequiredInterfaces((InterfaceContainer) architecture.getBaseDefinition(), (InterfaceContainer) architecture.getHeadDefinition(),
+				architecture.getBaseContext(), architecture.getHeadContext(), result);
+	}
+
+	private Definition newResultDefinition() {
+		return CommonASTHelper.newNode(architecture.getNodeFactory(), "definition", Definition.class);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.dot;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.fractal.adl.Definition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.mind.adl.ast.Binding;
+import org.ow2.mind.adl.ast.BindingContainer;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.ComponentContainer;
+import org.ow2.mind.diff.BenchmarkArchitecture;
+
+/**
+ * Benchmark of the DotWriter: graphviz source code of the top-level diff definition,
+ * with all its sub-components and bindings, written to a discarding writer so that no I/O is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DotWriterBenchmark {
+
+	@Param({ "8", "32" })
+	public int fanOut;
+
+	@Param({ "1.0" })
+	public double bindingDensity;
+
+	@Param({ "0.1" })
+	public double changeRatio;
+
+	private BenchmarkArchitecture architecture;
+	private Definition diffDefinition;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		// only the top-level instance is written: one level is enough
+		architecture = new BenchmarkArchitecture(fanOut, 1, bindingDensity, changeRatio);
+		architecture.setUp();
+		diffDefinition = architecture.newArchitecturesComparator().compareDefinitionTrees(architecture.getBaseDefinition(), architecture.getHeadDefinition(),
+				architecture.getBaseContext(), architecture.getHeadContext());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		architecture.tearDown();
+	}
+
+	@Benchmark
+	public DotWriter writeTopLevel() {
+		DotWriter dotWriter = new DotWriter();
+		dotWriter.adlLoaderItf = architecture.getLoader();
+		dotWriter.implementationLocatorItf = architecture.getImplementationLocator();
+
+		dotWriter.init(BenchmarkArchitecture.TOP_LEVEL_NAME, null, architecture.getBaseContext(), architecture.getHeadContext(), new NullWriter());
+		for (Component component : ((ComponentContainer) diffDefinition).getComponents())
+			dotWriter.addSubComponent(component);
+		for (Binding binding : ((BindingContainer) diffDefinition).getBindings())
+			dotWriter.addBinding(binding);
+		dotWriter.close();
+		return dotWriter;
+	}
+
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -23,13 +23,20 @@
 package org.ow2.mind.diff;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.objectweb.fractal.adl.ADLException;
 import org.objectweb.fractal.adl.Definition;
 import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.Node;
 import org.objectweb.fractal.adl.NodeFactory;
 import org.objectweb.fractal.adl.NodeUtil;
 import org.objectweb.fractal.adl.interfaces.Interface;
@@ -45,6 +52,8 @@ import org.ow2.mind.adl.ast.DefinitionReference;
 import org.ow2.mind.adl.ast.ImplementationContainer;
 import org.ow2.mind.adl.ast.MindInterface;
 import org.ow2.mind.adl.ast.Source;
+import org.ow2.mind.adl.implementation.ImplementationLocator;
+import org.ow2.mind.idl.IDLLocator;
 
 public class ArchitecturesComparator {
 
@@ -52,11 +61,155 @@ public class ArchitecturesComparator {
 	protected NodeFactory			nodeFactoryItf;
 	protected NodeMerger 			nodeMergerItf;
 
+	/** Sub-components are matched by instance name */
+	private static final NodeMatcher<Component> COMPONENT_MATCHER = new NodeMatcher<Component>() {
+		@Override
+		protected Object getKey(Component component) {
+			return component.getName();
+		}
+	};
+
+	/** Interfaces are matched by instance name and role */
+	private static final NodeMatcher<Interface> INTERFACE_MATCHER = new NodeMatcher<Interface>() {
+		@Override
+		protected Object getKey(Interface itf) {
+			return itf.getName() + '/' + ((MindInterface) itf).getRole();
+		}
+	};
+
+	/** Bindings are matched by their (from, to) end-points */
+	private static final NodeMatcher<Binding> BINDING_MATCHER = new NodeMatcher<Binding>() {
+		@Override
+		protected Object getKey(Binding binding) {
+			return new BindingKey(binding);
+		}
+	};
+
+	/** Key shared by all inline C code sources */
+	private static final Object INLINE_SOURCE_KEY = new Object();
+
+	/**
+	 * Source files are matched by path.
+	 * Inline C code sources share the same key: the first BASE one is matched with the first HEAD one.
+	 */
+	private static final NodeMatcher<Source> SOURCE_MATCHER = new NodeMatcher<Source>() {
+		@Override
+		protected Object getKey(Source source) {
+			return source.getPath() != null ? source.getPath() : INLINE_SOURCE_KEY;
+		}
+	};
+
+	/** Source contents hashes, cached for the run */
+	protected SourceHasher			sourceHasher;
+
+	/** Structural fingerprints, by context (compared by identity) */
+	private final Map<Map<Object, Object>, DefinitionFingerprinter> fingerprinters = new IdentityHashMap<Map<Object, Object>, DefinitionFingerprinter>();
 
-	public ArchitecturesComparator(Loader loaderItf, NodeFactory nodeFactoryItf, NodeMerger nodeMergerItf) {
+	/**
+	 * Diff results already computed, by definitions pair.
+	 * A same BASE/HEAD definitions pair instantiated many times is only compared once,
+	 * the result tree thus being a DAG sharing the diff definitions.
+	 * Scoped to one comparison: cleared by each call to compareDefinitionTrees.
+	 */
+	private final ConcurrentMap<DefinitionsPair, Definition> diffResults = new ConcurrentHashMap<DefinitionsPair, Definition>();
+
+	/**
+	 * Diff summaries already computed, by definitions pair (summaries are computed sequentially).
+	 * Scoped to one summary: cleared by each call to summarizeDefinitionTrees.
+	 */
+	private final Map<DefinitionsPair, DiffSummary> diffSummaries = new HashMap<DefinitionsPair, DiffSummary>();
+
+	/** Default minimal number of matched sub-components for their comparison to be forked */
+	public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 4;
+
+	/** Pool used to compare sibling sub-components in parallel, null when sequential */
+	private ForkJoinPool forkJoinPool = null;
+
+	/** Under this number of matched sub-components, comparisons stay sequential */
+	private int sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+
+	/** No depth limit: the whole trees are compared */
+	public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+	/** Deepest level of compared instances, the top-level being at level 0 */
+	private int maxDepth = UNLIMITED_DEPTH;
+
+	/** Outputs of the previous runs, null when not used */
+	private DiffCache diffCache = null;
+
+	/** Counts of the compared elements, null when not counted */
+	private DiffStatistics statistics = null;
+
+	/**
+	 * Loader, NodeFactory and NodeMerger are not thread-safe, and the loader uses the NodeFactory:
+	 * their accesses are serialized when comparing in parallel, as well as the cloning of the loaded nodes,
+	 * which other workers may be decorating meanwhile (e.g. resolved definitions).
+	 * The lock is only held for these short AST operations, grouped per matched sub-component;
+	 * matching, source hashing and fingerprinting (but its resolutions) run concurrently.
+	 */
+	private final Object astLock = new Object();
+
+	public ArchitecturesComparator(Loader loaderItf, NodeFactory nodeFactoryItf, NodeMerger nodeMergerItf,
+			ImplementationLocator implementationLocatorItf, IDLLocator idlLocatorItf) {
 		this.loaderItf = loaderItf;
 		this.nodeFactoryItf = nodeFactoryItf;
 		this.nodeMergerItf = nodeMergerItf;			
+		this.sourceHasher = new SourceHasher(implementationLocatorItf, idlLocatorItf);
+	}
+
+	/**
+	 * Configure the parallel comparison of sibling sub-components.
+	 * Results are the same whatever the configuration.
+	 * 
+	 * @param parallelism the number of worker threads, 1 or less for sequential comparison
+	 * @param sequentialThreshold the minimal number of matched sub-components in a composite for their comparison to be forked
+	 */
+	public void setParallelism(int parallelism, int sequentialThreshold) {
+		shutdown();
+		if (parallelism > 1)
+			forkJoinPool = new ForkJoinPool(parallelism);
+		this.sequentialThreshold = sequentialThreshold;
+	}
+
+	/**
+	 * Release the worker threads used for parallel comparison, if any.
+	 */
+	public void shutdown() {
+		if (forkJoinPool != null) {
+			forkJoinPool.shutdown();
+			forkJoinPool = null;
+		}
+	}
+
+	/**
+	 * Use the outputs of the previous runs: sub-trees whose output is up-to-date are not compared.
+	 * Sub-components and top-level diff definition are decorated with their key in the cache
+	 * (see DiffHelper.getDiffKey).
+	 * 
+	 * @param diffCache the persistent cache, null not to use any
+	 */
+	public void setDiffCache(DiffCache diffCache) {
+		this.diffCache = diffCache;
+	}
+
+	/**
+	 * Limit the comparison depth: the instances deeper than the given level are only compared
+	 * by their interfaces, for the graph of their parent (see DiffHelper.setDiffTruncated).
+	 * 
+	 * @param maxDepth the deepest level of compared instances, the top-level being at level 0,
+	 * UNLIMITED_DEPTH to compare the whole trees
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Count the definitions loaded, the components matched and the bindings compared.
+	 * 
+	 * @param statistics the statistics of the diff, null not to count anything
+	 */
+	public void setStatistics(DiffStatistics statistics) {
+		this.statistics = statistics;
 	}
 
 	/**
@@ -67,15 +220,236 @@ public class ArchitecturesComparator {
 	 * @param headArchDef the new definition
 	 * @param baseContext the compiler context for the old definition
 	 * @param headContext the compiler context for the new definition
-	 * @return the newly created definition, with merged nodes from head and base, decorated with diff information (@see DiffHelper for decorations primitives)
+	 * @return the newly created definition, with merged nodes from head and base, decorated with diff information (@see DiffHelper for decorations primitives),
+	 * or a shallow copy of the HEAD definition flagged identical when both trees are identical
 	 * @throws ADLException 
 	 */
 	public Definition compareDefinitionTrees(Definition baseArchDef,
 			Definition headArchDef, Map<Object, Object> baseContext,
 			Map<Object, Object> headContext) throws ADLException {
 
+		// results of the previous comparisons (batch pairs, server requests) are not kept alive
+		diffResults.clear();
+
+		Definition result = compareDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext, "");
+
+		// identical trees: flag a copy of the HEAD definition, the loaded one being shared
+		// with the loader cache and later comparisons
+		if (result == headArchDef) {
+			result = cloneNode(headArchDef);
+			DiffHelper.setIdentical(result);
+		}
+
+		if (diffCache != null)
+			DiffHelper.setDiffKey(result, DiffCache.pairKey(getCacheFingerprint(baseArchDef, baseContext), getCacheFingerprint(headArchDef, headContext)));
+
+		return result;
+	}
+
+	/**
+	 * @param instancePath the path of the compared instance, relative to the top-level (see DiffCache)
+	 */
+	private Definition compareDefinitionTrees(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, String instancePath) throws ADLException {
+
+		// Entry point of a parallel comparison: run the whole recursion in the pool
+		if (forkJoinPool != null && !ForkJoinTask.inForkJoinPool()) {
+			try {
+				return forkJoinPool.invoke(new DefinitionTreesDiffTask(baseArchDef, headArchDef, baseContext, headContext, instancePath));
+			} catch (RuntimeException e) {
+				throw unwrapADLException(e);
+			}
+		}
+
+		// Too deep ? The parent only needs the interfaces
+		if (maxDepth != UNLIMITED_DEPTH && getDepth(instancePath) > maxDepth) {
+			Definition result = computeTruncatedDiff(baseArchDef, headArchDef, baseContext, headContext);
+			if (!hasDifferences(result))
+				DiffHelper.setIdentical(result);
+			return result;
+		}
+
+		// the diff cache keys need the fingerprints of the whole sub-trees
+		String cacheKey = diffCache != null
+				? DiffCache.pairKey(getCacheFingerprint(baseArchDef, baseContext), getCacheFingerprint(headArchDef, headContext))
+				: null;
+
+		// Identical trees, as far as already computed fingerprints tell ? The HEAD definition is the diff
+		if (hasSameFingerprints(baseArchDef, headArchDef, baseContext, headContext))
+			return headArchDef;
+
+		// Output up-to-date since a previous run ? The parent only needs the interfaces
+		if (diffCache != null && diffCache.isUpToDate(instancePath, cacheKey))
+			return computeCachedDiff(baseArchDef, headArchDef, baseContext, headContext);
+
+		DefinitionsPair key = new DefinitionsPair(baseArchDef.getName(), headArchDef.getName(), baseContext, headContext);
+
+		// Already compared ? Share the existing result
+		Definition result = diffResults.get(key);
+		if (result == null) {
+			result = computeDefinitionTreesDiff(baseArchDef, headArchDef, baseContext, headContext, instancePath);
+
+			if (!hasDifferences(result)) {
+				if (DiffHelper.isDiffPartial(result))
+					// identical down to the depth limit only
+					DiffHelper.setIdentical(result);
+				else
+					// Identical trees: the HEAD definition, without any decoration, is the diff
+					result = headArchDef;
+			}
+
+			// a result with cached sub-trees is only valid at its instance path: do not share it
+			if (!DiffHelper.isDiffPartial(result)) {
+				// when compared concurrently by two workers, keep the first registered result
+				Definition existingResult = diffResults.putIfAbsent(key, result);
+				if (existingResult != null)
+					result = existingResult;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param definition a definition loaded in the given context
+	 * @param context the context
+	 * @return the structural fingerprint of the definition tree, computed once per definition:
+	 * two trees with the same fingerprint have no difference
+	 * @throws ADLException 
+	 */
+	public String getFingerprint(Definition definition, Map<Object, Object> context) throws ADLException {
+		return getFingerprinter(context).getFingerprint(definition);
+	}
+
+	/**
+	 * Fingerprints are only computed for the diff cache keys: the comparison itself does not
+	 * resolve and hash whole sub-trees (added, removed or beyond the depth limit) up front.
+	 * @return true when the fingerprints of both trees are computed already, and equal
+	 */
+	private boolean hasSameFingerprints(Definition baseArchDef, Definition headArchDef,
+			Map<Object, Object> baseContext, Map<Object, Object> headContext) {
+		String baseFingerprint = getFingerprinter(baseContext).getCachedFingerprint(baseArchDef);
+		return baseFingerprint != null && baseFingerprint.equals(getFingerprinter(headContext).getCachedFingerprint(headArchDef));
+	}
+
+	/**
+	 * @param result a diff definition computed by computeDefinitionTreesDiff
+	 * @return true when the definition or any of its elements is decorated with a difference
+	 * (sub-components being different unless flagged identical)
+	 */
+	private static boolean hasDifferences(Definition result) {
+		if ((DiffHelper.getStatus(result) & ~(DiffHelper.DIFF_PARTIAL | DiffHelper.DIFF_TRUNCATED | DiffHelper.IDENTICAL)) != 0)
+			return true;
+
+		if (result instanceof InterfaceContainer)
+			for (Interface currItf : ((InterfaceContainer) result).getInterfaces())
+				if (DiffHelper.getStatus(currItf) != 0)
+					return true;
+
+		if (result instanceof ComponentContainer)
+			for (Component currComp : ((ComponentContainer) result).getComponents())
+				if (DiffHelper.getStatus(currComp) != DiffHelper.IDENTICAL)
+					return true;
+
+		if (result instanceof BindingContainer)
+			for (Binding currBinding : ((BindingContainer) result).getBindings())
+				if (DiffHelper.getStatus(currBinding) != 0)
+					return true;
+
+		if (result instanceof ImplementationContainer)
+			for (Source currSource : ((ImplementationContainer) result).getSources())
+				if (DiffHelper.getStatus(currSource) != 0)
+					return true;
+
+		return false;
+	}
+
+	/**
+	 * @param definition a definition loaded in the given context
+	 * @param context the context
+	 * @return the fingerprint of everything the outputs of the definition tree depend on:
+	 * its structure and sources contents, and the locations of its ADL elements and source files
+	 * @throws ADLException
+	 */
+	private String getCacheFingerprint(Definition definition, Map<Object, Object> context) throws ADLException {
+		DefinitionFingerprinter fingerprinter = getFingerprinter(context);
+		return fingerprinter.getFingerprint(definition) + "+" + fingerprinter.getDependenciesFingerprint(definition);
+	}
+
+	/**
+	 * Forget the fingerprints of the definitions loaded in a context which is not used anymore,
+	 * e.g. re-created since its sources changed.
+	 * @param context the compiler context
+	 */
+	public void forgetContext(Map<Object, Object> context) {
+		synchronized (fingerprinters) {
+			fingerprinters.remove(context);
+		}
+	}
+
+	private DefinitionFingerprinter getFingerprinter(Map<Object, Object> context) {
+		synchronized (fingerprinters) {
+			DefinitionFingerprinter fingerprinter = fingerprinters.get(context);
+			if (fingerprinter == null) {
+				fingerprinter = new DefinitionFingerprinter(loaderItf, sourceHasher, context, astLock);
+				fingerprinters.put(context, fingerprinter);
+			}
+			return fingerprinter;
+		}
+	}
+
+	/**
+	 * Diff definition of a sub-tree whose output is up-to-date in the diff cache:
+	 * only its interfaces are compared, for the graph of its parent.
+	 */
+	private Definition computeCachedDiff(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext) throws ADLException {
+
+		Definition result = newDefinitionNode();
+		result.setName(headArchDef.getName() + "_DiffResult");
+		DiffHelper.setDiffCached(result);
+
+		return compareInterfaceContainers(baseArchDef, headArchDef, baseContext, headContext, result);
+	}
+
+	/**
+	 * Diff definition of a sub-tree deeper than the depth limit:
+	 * only its interfaces are compared, for the graph of its parent.
+	 */
+	private Definition computeTruncatedDiff(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext) throws ADLException {
+
+		Definition result = newDefinitionNode();
+		result.setName(headArchDef.getName() + "_DiffResult");
+		DiffHelper.setDiffTruncated(result);
+
+		return compareInterfaceContainers(baseArchDef, headArchDef, baseContext, headContext, result);
+	}
+
+	/**
+	 * @param instancePath an instance path, relative to the top-level
+	 * @return the level of the instance, the top-level being at level 0
+	 */
+	private static int getDepth(String instancePath) {
+		int depth = 0;
+		for (int i = 0; i < instancePath.length(); i++)
+			if (instancePath.charAt(i) == '.')
+				depth++;
+		return depth;
+	}
+
+	/**
+	 * Do the job for compareDefinitionTrees, without looking up already computed results.
+	 */
+	private Definition computeDefinitionTreesDiff(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, String instancePath) throws ADLException {
+
 		// Create a new result definition
-		Definition result = CommonASTHelper.newNode(nodeFactoryItf, "definition", Definition.class);
+		Definition result = newDefinitionNode();
 		result.setName(headArchDef.getName() + "_DiffResult");
 
 		// Compare natures
@@ -84,23 +458,23 @@ public class ArchitecturesComparator {
 				// Both Composite
 
 				// convert to ComponentContainer and directly use the merged type
-				result = (Definition) CommonASTHelper.turnsTo(result, ComponentContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (Definition) turnsTo(result, ComponentContainer.class);
 
 				// Are sub-components and bindings different ?
-				result = compareCompositesContent((ComponentContainer) baseArchDef, (ComponentContainer) headArchDef, baseContext, headContext, (ComponentContainer) result);
+				result = compareCompositesContent((ComponentContainer) baseArchDef, (ComponentContainer) headArchDef, baseContext, headContext, (ComponentContainer) result, instancePath);
 			} else {
 				// Changed: Composite -> Primitive
 				DiffHelper.setDefinitionNowPrimitive(result);
 				
 				// convert as ComponentContainer and ImplementationContainer hybrid
-				result = (Definition) CommonASTHelper.turnsTo(result, ComponentContainer.class, nodeFactoryItf, nodeMergerItf);
-				result = (Definition) CommonASTHelper.turnsTo(result, ImplementationContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (Definition) turnsTo(result, ComponentContainer.class);
+				result = (Definition) turnsTo(result, ImplementationContainer.class);
 				
 				// Decorate old composite content and new primitive content ('for' loops with 0 content will go fast)
-				Definition baseArchDefAsPrimitive = (Definition) CommonASTHelper.turnsTo(baseArchDef, ImplementationContainer.class, nodeFactoryItf, nodeMergerItf);
-				Definition headArchDefAsComposite = (Definition) CommonASTHelper.turnsTo(headArchDef, ComponentContainer.class, nodeFactoryItf, nodeMergerItf);
+				Definition baseArchDefAsPrimitive = (Definition) turnsTo(baseArchDef, ImplementationContainer.class);
+				Definition headArchDefAsComposite = (Definition) turnsTo(headArchDef, ComponentContainer.class);
 				
-				result = compareCompositesContent((ComponentContainer) baseArchDef, (ComponentContainer) headArchDefAsComposite, baseContext, headContext, (ComponentContainer) result);
+				result = compareCompositesContent((ComponentContainer) baseArchDef, (ComponentContainer) headArchDefAsComposite, baseContext, headContext, (ComponentContainer) result, instancePath);
 				if (headArchDef instanceof ImplementationContainer)
 					result = comparePrimitivesContent((ImplementationContainer) baseArchDefAsPrimitive, (ImplementationContainer) headArchDef, baseContext, headContext, (ImplementationContainer) result);
 			}
@@ -110,21 +484,21 @@ public class ArchitecturesComparator {
 				DiffHelper.setDefinitionNowComposite(result);
 				
 				// convert as ComponentContainer and ImplementationContainer hybrid
-				result = (Definition) CommonASTHelper.turnsTo(result, ImplementationContainer.class, nodeFactoryItf, nodeMergerItf);
-				result = (Definition) CommonASTHelper.turnsTo(result, ComponentContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (Definition) turnsTo(result, ImplementationContainer.class);
+				result = (Definition) turnsTo(result, ComponentContainer.class);
 				
 				// Decorate old composite content and new primitive content ('for' loops with 0 content will go fast)
-				Definition baseArchDefAsComposite = (Definition) CommonASTHelper.turnsTo(baseArchDef, ComponentContainer.class, nodeFactoryItf, nodeMergerItf);
-				Definition headArchDefAsPrimitive = (Definition) CommonASTHelper.turnsTo(headArchDef, ImplementationContainer.class, nodeFactoryItf, nodeMergerItf);
+				Definition baseArchDefAsComposite = (Definition) turnsTo(baseArchDef, ComponentContainer.class);
+				Definition headArchDefAsPrimitive = (Definition) turnsTo(headArchDef, ImplementationContainer.class);
 				
-				result = compareCompositesContent((ComponentContainer) baseArchDefAsComposite, (ComponentContainer) headArchDef, baseContext, headContext, (ComponentContainer) result);
+				result = compareCompositesContent((ComponentContainer) baseArchDefAsComposite, (ComponentContainer) headArchDef, baseContext, headContext, (ComponentContainer) result, instancePath);
 				if (baseArchDef instanceof ImplementationContainer)
 					result = comparePrimitivesContent((ImplementationContainer) baseArchDef, (ImplementationContainer) headArchDefAsPrimitive, baseContext, headContext, (ImplementationContainer) result);
 			} else {
 				// Both Primitive
 
 				// convert to ImplementationContainer and directly use the modified type
-				result = (Definition) CommonASTHelper.turnsTo(result, ImplementationContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (Definition) turnsTo(result, ImplementationContainer.class);
 
 				// Are sources and data different ?
 
@@ -134,21 +508,28 @@ public class ArchitecturesComparator {
 			}
 		}
 
+		return compareInterfaceContainers(baseArchDef, headArchDef, baseContext, headContext, result);
+	}
+
+	private Definition compareInterfaceContainers(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, Definition result) {
+
 		if (baseArchDef instanceof InterfaceContainer) {
 			if (headArchDef instanceof InterfaceContainer) {
 				// Both
 
 				// are provided and required interfaces different ?
-				result = (Definition) CommonASTHelper.turnsTo(result, InterfaceContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (Definition) turnsTo(result, InterfaceContainer.class);
 				result = compareProvidedRequiredInterfaces((InterfaceContainer) baseArchDef, (InterfaceContainer) headArchDef, baseContext, headContext, (InterfaceContainer) result);
 			} else {
 				// convert to InterfaceContainer and directly use the modified type
-				InterfaceContainer resultAsItfContainer = CommonASTHelper.turnsTo(result, InterfaceContainer.class, nodeFactoryItf, nodeMergerItf);
+				InterfaceContainer resultAsItfContainer = turnsTo(result, InterfaceContainer.class);
 				result = (Definition) resultAsItfContainer;
 
 				// all interfaces are old
 				for (Interface currItf : ((InterfaceContainer) baseArchDef).getInterfaces()) {
-					Interface cloneItf = NodeUtil.cloneNode(currItf);
+					Interface cloneItf = cloneNode(currItf);
 					DiffHelper.setIsOldInterface(cloneItf);
 					resultAsItfContainer.addInterface(cloneItf);
 				}
@@ -158,12 +539,12 @@ public class ArchitecturesComparator {
 				// Changed: did not have interfaces -> Now does
 
 				// convert to InterfaceContainer and directly use the modified type
-				InterfaceContainer resultAsItfContainer = CommonASTHelper.turnsTo(result, InterfaceContainer.class, nodeFactoryItf, nodeMergerItf);
+				InterfaceContainer resultAsItfContainer = turnsTo(result, InterfaceContainer.class);
 				result = (Definition) resultAsItfContainer;
 
 				// all interfaces are new
 				for (Interface currItf : ((InterfaceContainer) headArchDef).getInterfaces()) {
-					Interface cloneItf = NodeUtil.cloneNode(currItf);
+					Interface cloneItf = cloneNode(currItf);
 					DiffHelper.setIsNewInterface(cloneItf);
 					resultAsItfContainer.addInterface(cloneItf);
 				}
@@ -177,65 +558,44 @@ public class ArchitecturesComparator {
 
 
 
-	private Definition compareProvidedRequiredInterfaces(
+	// package-private for the benchmarks
+	Definition compareProvidedRequiredInterfaces(
 			InterfaceContainer baseArchDef, InterfaceContainer headArchDef,
 			Map<Object, Object> baseContext, Map<Object, Object> headContext,
 			InterfaceContainer result) {
 
-		Interface[] baseInterfaces = baseArchDef.getInterfaces();
-		Interface[] headInterfaces = headArchDef.getInterfaces();
-
-		// modifiable lists to keep track of who was met, and who is remaining
-		List<Interface> baseInterfacesList = new ArrayList<Interface>(Arrays.asList(baseInterfaces));
-		List<Interface> headInterfacesList = new ArrayList<Interface>(Arrays.asList(headInterfaces));
-
-		for (Interface currHeadItf : headInterfaces) {
-			MindInterface currHeadInterface = (MindInterface) currHeadItf;
-
-			// Try to find the same sub-component in the original definition
-			for (Interface currBaseItf : baseInterfaces) {
-				MindInterface currBaseInterface = (MindInterface) currBaseItf;
-
-
-				// Definitions would be needed for deeper comparisons
-				//				IDL currBaseItfIDL = idlLoaderItf.load(currBaseInterface.getSignature(), baseContext);
-				//				IDL currHeadItfIDL = idlLoaderItf.load(currHeadInterface.getSignature(), headContext);
-
-				if (currHeadInterface.getName().equals(currBaseInterface.getName())) {
-					// Instance is common to BASE and HEAD
-
+		// Two interfaces can have the same instance name but having changed role ! (provided -> required / required -> provided)
+		// they are then considered as different interfaces
+		NodeMatcher.Result<Interface> interfacesMatching = INTERFACE_MATCHER.match(baseArchDef.getInterfaces(), headArchDef.getInterfaces());
 
-					// Two interfaces can have the same instance name but having changed role ! (provided -> required / required -> provided)
-					if (currHeadInterface.getRole().equals(currBaseInterface.getRole())) {
+		for (NodeMatcher.Match<Interface> currMatch : interfacesMatching.getMatches()) {
+			// Instance is common to BASE and HEAD
+			MindInterface currBaseInterface = (MindInterface) currMatch.getBase();
+			MindInterface currHeadInterface = (MindInterface) currMatch.getHead();
 
-						// Remove reference from list, so that in the end we know all the remaining ones (not found in HEAD)
-						// and treat them specially
-						baseInterfacesList.remove(currBaseInterface);
-						headInterfacesList.remove(currHeadInterface);
+			// Definitions would be needed for deeper comparisons
+			//				IDL currBaseItfIDL = idlLoaderItf.load(currBaseInterface.getSignature(), baseContext);
+			//				IDL currHeadItfIDL = idlLoaderItf.load(currHeadInterface.getSignature(), headContext);
 
-						// Add a clone of the sub-component in our new definition
-						Interface cloneItf = NodeUtil.cloneNode(currHeadInterface);
-						result.addInterface(cloneItf);
-
-						// If the common instance has a different definition, signal it and do sub-diff
-						if (!currBaseInterface.getSignature().equals(currBaseInterface.getSignature()))
-							DiffHelper.setInterfaceDefinitionChanged(cloneItf);
-					}
+			// Add a clone of the interface in our new definition
+			Interface cloneItf = cloneNode(currHeadInterface);
+			result.addInterface(cloneItf);
 
-				}
-			}
+			// If the common instance has a different signature, contingency or cardinality, signal it
+			if (isInterfaceChanged(currBaseInterface, currHeadInterface))
+				DiffHelper.setInterfaceDefinitionChanged(cloneItf);
 		}
 
 		// all the remaining referenced components exist in BASE but not in HEAD
-		for (Interface currInterface : baseInterfacesList) {
-			Interface cloneItf = NodeUtil.cloneNode(currInterface);
+		for (Interface currInterface : interfacesMatching.getBaseOnly()) {
+			Interface cloneItf = cloneNode(currInterface);
 			DiffHelper.setIsOldInterface(cloneItf);
 			result.addInterface(cloneItf);
 		}
 
 		// all the remaining referenced components exist in HEAD but not in BASE
-		for (Interface currInterface : headInterfacesList) {
-			Interface cloneItf = NodeUtil.cloneNode(currInterface);
+		for (Interface currInterface : interfacesMatching.getHeadOnly()) {
+			Interface cloneItf = cloneNode(currInterface);
 			DiffHelper.setIsNewInterface(cloneItf);
 			result.addInterface(cloneItf);
 		}
@@ -243,79 +603,121 @@ public class ArchitecturesComparator {
 		return (Definition) result;
 	}
 
+	/**
+	 * @return true when matched interfaces differ by their signature, contingency or cardinality
+	 * (the name and role being used to match them)
+	 */
+	private static boolean isInterfaceChanged(MindInterface baseInterface, MindInterface headInterface) {
+		return !equal(baseInterface.getSignature(), headInterface.getSignature())
+				|| !equal(baseInterface.getContingency(), headInterface.getContingency())
+				|| !equal(baseInterface.getCardinality(), headInterface.getCardinality());
+	}
+
+	private static boolean equal(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
 	private Definition compareCompositesContent(ComponentContainer baseArchDef,
 			ComponentContainer headArchDef, Map<Object, Object> baseContext,
-			Map<Object, Object> headContext, ComponentContainer result) throws ADLException {
+			Map<Object, Object> headContext, ComponentContainer result, String instancePath) throws ADLException {
 
 		//-- 1) handle sub-components
 
-		Component[] baseComponents = baseArchDef.getComponents();
-		Component[] headComponents = headArchDef.getComponents();
-
-		// modifiable lists to keep track of who was met, and who is remaining
-		List<Component> baseComponentsList = new ArrayList<Component>(Arrays.asList(baseComponents));
-		List<Component> headComponentsList = new ArrayList<Component>(Arrays.asList(headComponents));
-
-		for (Component currHeadSubComponent : headComponents) {
+		// index sub-components by instance name instead of comparing every pair
+		NodeMatcher.Result<Component> componentsMatching = COMPONENT_MATCHER.match(baseArchDef.getComponents(), headArchDef.getComponents());
+
+		List<NodeMatcher.Match<Component>> componentsMatches = componentsMatching.getMatches();
+		int matchesNb = componentsMatches.size();
+		if (statistics != null)
+			statistics.add(DiffStatistics.COMPONENTS_MATCHED, matchesNb);
+		Component[] cloneComps = new Component[matchesNb];
+		Definition[] baseSubDefs = new Definition[matchesNb];
+		Definition[] headSubDefs = new Definition[matchesNb];
+		String[] subInstancePaths = new String[matchesNb];
+
+		for (int i = 0; i < matchesNb; i++) {
+			// Instance is common to BASE and HEAD
+			Component currBaseSubComponent = componentsMatches.get(i).getBase();
+			Component currHeadSubComponent = componentsMatches.get(i).getHead();
+
+			Definition currBaseSubDef;
+			Definition currHeadSubDef;
+			Component cloneComp;
+			// a single lock acquisition for the AST operations of the pair
+			synchronized (astLock) {
+				// Definitions are needed for deeper comparisons (only resolved for matched pairs)
+				currBaseSubDef = resolveComponentDefinition(currBaseSubComponent, baseContext);
+				currHeadSubDef = resolveComponentDefinition(currHeadSubComponent, headContext);
+
+				// Add a clone of the sub-component in our new definition
+				cloneComp = cloneNode(currHeadSubComponent);
+			}
+			result.addComponent(cloneComp);
 
-			// Try to find the same sub-component in the original definition
-			for (Component currBaseSubComponent : baseComponents) {
+			// If the common instance has a different definition, signal it and do sub-diff
+			if (!currHeadSubDef.getName().equals(currBaseSubDef.getName()))
+				DiffHelper.setSubCompDefChanged(cloneComp);
+			DiffHelper.setDefinitionNames(cloneComp, currBaseSubDef.getName(), currHeadSubDef.getName());
 
-				// Definitions are needed for deeper comparisons
-				Definition currBaseSubDef = ASTHelper.getResolvedComponentDefinition(currBaseSubComponent, loaderItf, baseContext);
-				Definition currHeadSubDef = ASTHelper.getResolvedComponentDefinition(currHeadSubComponent, loaderItf, headContext);
+			if (diffCache != null)
+				DiffHelper.setDiffKey(cloneComp, DiffCache.pairKey(getCacheFingerprint(currBaseSubDef, baseContext), getCacheFingerprint(currHeadSubDef, headContext)));
 
-				if (currHeadSubComponent.getName().equals(currBaseSubComponent.getName())) {
-					// Instance is common to BASE and HEAD
+			cloneComps[i] = cloneComp;
+			baseSubDefs[i] = currBaseSubDef;
+			headSubDefs[i] = currHeadSubDef;
+			subInstancePaths[i] = instancePath + "." + currHeadSubComponent.getName();
+		}
 
-					// Remove reference from list, so that in the end we know all the remaining ones (not found in HEAD)
-					// and treat them specially
-					baseComponentsList.remove(currBaseSubComponent);
-					headComponentsList.remove(currHeadSubComponent);
+		// Recursion
+		// for all identical or modified sub-component definitions (but not the completely new or old)
+		Definition[] subResultDefs = compareSubDefinitionTrees(baseSubDefs, headSubDefs, baseContext, headContext, subInstancePaths);
 
-					// Add a clone of the sub-component in our new definition
-					Component cloneComp = NodeUtil.cloneNode(currHeadSubComponent);
-					result.addComponent(cloneComp);
+		for (int i = 0; i < matchesNb; i++) {
+			Component cloneComp = cloneComps[i];
+			Definition subResultDef = subResultDefs[i];
 
-					// If the common instance has a different definition, signal it and do sub-diff
-					if (!currHeadSubDef.getName().equals(currBaseSubDef.getName()))
-						DiffHelper.setSubCompDefChanged(cloneComp);
+			if ((DiffHelper.getStatus(subResultDef) & (DiffHelper.DIFF_CACHED | DiffHelper.DIFF_TRUNCATED | DiffHelper.DIFF_PARTIAL)) != 0)
+				DiffHelper.setDiffPartial((Definition) result);
 
-					// Recursion
-					// for all identical or modified sub-component definitions (but not the completely new or old)
-					Definition subResultDef = compareDefinitionTrees(currBaseSubDef, currHeadSubDef, baseContext, headContext);
+			// identical sub-trees: the diff is the HEAD definition itself,
+			// or a diff flagged identical when only compared down to the depth limit
+			if (subResultDef == headSubDefs[i] || DiffHelper.isIdentical(subResultDef))
+				DiffHelper.setIdentical(cloneComp);
 
-					ASTHelper.setResolvedComponentDefinition(cloneComp, subResultDef);
-					DefinitionReference subResultDefRef = ASTHelper.newDefinitionReference(nodeFactoryItf, subResultDef.getName());
-					ASTHelper.setResolvedDefinition(subResultDefRef, subResultDef);
+			ASTHelper.setResolvedComponentDefinition(cloneComp, subResultDef);
+			DefinitionReference subResultDefRef = newDefinitionReference(subResultDef.getName());
+			ASTHelper.setResolvedDefinition(subResultDefRef, subResultDef);
 
-					cloneComp.setDefinitionReference(subResultDefRef);
-				}
-			}
+			cloneComp.setDefinitionReference(subResultDefRef);
 		}
 
 		// all the remaining referenced components exist in BASE but not in HEAD
-		for (Component currComponent : baseComponentsList) {
-			Component cloneComp = NodeUtil.cloneNode(currComponent);
+		for (Component currComponent : componentsMatching.getBaseOnly()) {
+			Component cloneComp = cloneNode(currComponent);
 			DiffHelper.setIsOldComponent(cloneComp);
 			result.addComponent(cloneComp);
 			
-			// post-treatment
-			// we need to decorate all sub-nodes as being old as well
-			Definition currBaseSubDef = ASTHelper.getResolvedComponentDefinition(cloneComp, loaderItf, baseContext);
-			decorateAllSubNodesAsOld(currBaseSubDef, baseContext);
+			// sub-nodes are old as well, by inheritance (see DiffHelper.getInheritedStatus):
+			// the sub-tree is only loaded when needed
+			// (the fingerprinter locks its own resolutions: the sub-tree is hashed without holding the lock)
+			if (diffCache != null) {
+				Definition currBaseSubDef = resolveComponentDefinition(cloneComp, baseContext);
+				DiffHelper.setDiffKey(cloneComp, DiffCache.oldKey(getCacheFingerprint(currBaseSubDef, baseContext)));
+			}
 		}
 
 		// all the remaining referenced components exist in HEAD but not in BASE
-		for (Component currComponent : headComponentsList) {
-			Component cloneComp = NodeUtil.cloneNode(currComponent);
+		for (Component currComponent : componentsMatching.getHeadOnly()) {
+			Component cloneComp = cloneNode(currComponent);
 			DiffHelper.setIsNewComponent(cloneComp);
 			result.addComponent(cloneComp);
 			
-			// post-treatment
-			// we need to decorate all sub-nodes as being new as well
-			Definition currHeadSubDef = ASTHelper.getResolvedComponentDefinition(cloneComp, loaderItf, headContext);
-			decorateAllSubNodesAsNew(currHeadSubDef, headContext);
+			// sub-nodes are new as well, by inheritance (see DiffHelper.getInheritedStatus):
+			// the sub-tree is only loaded when needed
+			if (diffCache != null) {
+				Definition currHeadSubDef = resolveComponentDefinition(cloneComp, headContext);
+				DiffHelper.setDiffKey(cloneComp, DiffCache.newKey(getCacheFingerprint(currHeadSubDef, headContext)));
+			}
 		}
 
 		//-- 2) handle bindings
@@ -324,18 +726,18 @@ public class ArchitecturesComparator {
 			if (headArchDef instanceof BindingContainer) {
 
 				// Let's do the job
-				result = (ComponentContainer) CommonASTHelper.turnsTo((Definition) result, BindingContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (ComponentContainer) turnsTo((Definition) result, BindingContainer.class);
 				result = (ComponentContainer) compareBindings((BindingContainer) baseArchDef, (BindingContainer) headArchDef, baseContext, headContext, (BindingContainer) result);
 
 			} else {
 				// Was BindingContainer -> No more
 				DiffHelper.setDefNoMoreBindingContainer((Definition) result);
 
-				result = (ComponentContainer) CommonASTHelper.turnsTo((Definition) result, BindingContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (ComponentContainer) turnsTo((Definition) result, BindingContainer.class);
 
 				// Populate with old bindings
 				for (Binding currBinding : ((BindingContainer) baseArchDef).getBindings()) {
-					Binding cloneBinding = NodeUtil.cloneNode(currBinding);
+					Binding cloneBinding = cloneNode(currBinding);
 					DiffHelper.setIsOldBinding(cloneBinding);
 					((BindingContainer) result).addBinding(cloneBinding);
 				}
@@ -345,11 +747,11 @@ public class ArchitecturesComparator {
 				// Was NOT BindingContainer -> Now is
 				DiffHelper.setDefNowBindingContainer((Definition) result);
 
-				result = (ComponentContainer) CommonASTHelper.turnsTo((Definition) result, BindingContainer.class, nodeFactoryItf, nodeMergerItf);
+				result = (ComponentContainer) turnsTo((Definition) result, BindingContainer.class);
 
 				// Populate with new bindings
 				for (Binding currBinding : ((BindingContainer) headArchDef).getBindings()) {
-					Binding cloneBinding = NodeUtil.cloneNode(currBinding);
+					Binding cloneBinding = cloneNode(currBinding);
 					DiffHelper.setIsNewBinding(cloneBinding);
 					((BindingContainer) result).addBinding(cloneBinding);
 				}
@@ -363,117 +765,35 @@ public class ArchitecturesComparator {
 
 	}
 
-	private void decorateAllSubNodesAsNew(Definition currHeadSubDef, Map<Object, Object> headContext) throws ADLException {
-		
-		if (currHeadSubDef instanceof InterfaceContainer)
-			for (Interface currItf : ((InterfaceContainer) currHeadSubDef).getInterfaces())
-				DiffHelper.setIsNewInterface(currItf);
-		
-		if (currHeadSubDef instanceof BindingContainer)
-			for (Binding currBinding : ((BindingContainer) currHeadSubDef).getBindings())
-				DiffHelper.setIsNewBinding(currBinding);
-		
-		if (currHeadSubDef instanceof ImplementationContainer)
-			for (Source currSource : ((ImplementationContainer) currHeadSubDef).getSources())
-				DiffHelper.setIsNewSource(currSource);
-		
-		if (currHeadSubDef instanceof ComponentContainer)
-			for (Component currComp : ((ComponentContainer) currHeadSubDef).getComponents()) {
-				DiffHelper.setIsNewComponent(currComp);
-				Definition currCompDef = ASTHelper.getResolvedComponentDefinition(currComp, loaderItf, headContext);
-				
-				// recursion
-				decorateAllSubNodesAsNew(currCompDef, headContext);
-			}
-		
-	}
-
-	private void decorateAllSubNodesAsOld(Definition currBaseSubDef, Map<Object, Object> baseContext) throws ADLException {
-		
-		if (currBaseSubDef instanceof InterfaceContainer)
-			for (Interface currItf : ((InterfaceContainer) currBaseSubDef).getInterfaces())
-				DiffHelper.setIsOldInterface(currItf);
-		
-		if (currBaseSubDef instanceof BindingContainer)
-			for (Binding currBinding : ((BindingContainer) currBaseSubDef).getBindings())
-				DiffHelper.setIsOldBinding(currBinding);
-		
-		if (currBaseSubDef instanceof ImplementationContainer)
-			for (Source currSource : ((ImplementationContainer) currBaseSubDef).getSources())
-				DiffHelper.setIsOldSource(currSource);
-		
-		if (currBaseSubDef instanceof ComponentContainer)
-			for (Component currComp : ((ComponentContainer) currBaseSubDef).getComponents()) {
-				DiffHelper.setIsOldComponent(currComp);
-				Definition currCompDef = ASTHelper.getResolvedComponentDefinition(currComp, loaderItf, baseContext);
-				
-				// recursion
-				decorateAllSubNodesAsOld(currCompDef, baseContext);
-			}
-		
-	}
-
-	private BindingContainer compareBindings(BindingContainer baseArchDef,
+	// package-private for the benchmarks
+	BindingContainer compareBindings(BindingContainer baseArchDef,
 			BindingContainer headArchDef, Map<Object, Object> baseContext,
 			Map<Object, Object> headContext, BindingContainer result) throws ADLException {
 
-		Binding[] baseBindings = baseArchDef.getBindings();
-		Binding[] headBindings = headArchDef.getBindings();
-
-		// modifiable lists to keep track of who was met, and who is remaining
-		List<Binding> baseBindingsList = new ArrayList<Binding>(Arrays.asList(baseBindings));
-		List<Binding> headBindingsList = new ArrayList<Binding>(Arrays.asList(headBindings));
-
-		for (Binding currHeadBinding : headBindings) {
-
-			String headFromComponent 		= currHeadBinding.getFromComponent();
-			String headFromInterface 		= currHeadBinding.getFromInterface();
-			String headFromInterfaceNumber 	= currHeadBinding.getFromInterfaceNumber() != null ? currHeadBinding.getFromInterfaceNumber() : "";
-			String headToComponent 			= currHeadBinding.getToComponent();
-			String headToInterface 			= currHeadBinding.getToInterface();
-			String headToInterfaceNumber 	= currHeadBinding.getToInterfaceNumber() != null ? currHeadBinding.getToInterfaceNumber() : "";
-
-			// Try to find the same binding in the original definition
-			for (Binding currBaseBinding : baseBindings) {
-
-				String baseFromComponent 		= currBaseBinding.getFromComponent();
-				String baseFromInterface 		= currBaseBinding.getFromInterface();
-				String baseFromInterfaceNumber 	= currBaseBinding.getFromInterfaceNumber() != null ? currBaseBinding.getFromInterfaceNumber() : "" ;
-				String baseToComponent 			= currBaseBinding.getToComponent();
-				String baseToInterface 			= currBaseBinding.getToInterface();
-				String baseToInterfaceNumber 	= currBaseBinding.getToInterfaceNumber() != null ? currBaseBinding.getToInterfaceNumber() : "" ;
-
-				if (headFromComponent.equals(baseFromComponent)
-						&& headFromInterface.equals(baseFromInterface)
-						&& headFromInterfaceNumber.equals(baseFromInterfaceNumber)
-						&& headToComponent.equals(baseToComponent)
-						&& headToInterface.equals(baseToInterface)
-						&& headToInterfaceNumber.equals(baseToInterfaceNumber)) {
-
-					// Binding is common to BASE and HEAD
-
-					// Remove reference from list, so that in the end we know all the remaining ones (not found in HEAD)
-					// and treat them specially
-					baseBindingsList.remove(currBaseBinding);
-					headBindingsList.remove(currHeadBinding);
-
-					// Add a clone of the binding in our new definition
-					Binding cloneBinding = NodeUtil.cloneNode(currHeadBinding);
-					result.addBinding(cloneBinding);
-				}
-			}
+		// hash join on the normalized binding keys
+		NodeMatcher.Result<Binding> bindingsMatching = BINDING_MATCHER.match(baseArchDef.getBindings(), headArchDef.getBindings());
+		if (statistics != null)
+			statistics.add(DiffStatistics.BINDINGS_COMPARED, bindingsMatching.getMatches().size()
+					+ bindingsMatching.getBaseOnly().size() + bindingsMatching.getHeadOnly().size());
+
+		for (NodeMatcher.Match<Binding> currMatch : bindingsMatching.getMatches()) {
+			// Binding is common to BASE and HEAD
+
+			// Add a clone of the binding in our new definition
+			Binding cloneBinding = cloneNode(currMatch.getHead());
+			result.addBinding(cloneBinding);
 		}
 
 		// all the remaining referenced bindings exist in BASE but not in HEAD
-		for (Binding currBinding : baseBindingsList) {
-			Binding cloneBinding = NodeUtil.cloneNode(currBinding);
+		for (Binding currBinding : bindingsMatching.getBaseOnly()) {
+			Binding cloneBinding = cloneNode(currBinding);
 			DiffHelper.setIsOldBinding(cloneBinding);
 			result.addBinding(cloneBinding);
 		}
 
 		// all the remaining referenced components bindings in HEAD but not in BASE
-		for (Binding currBinding : headBindingsList) {
-			Binding cloneBinding = NodeUtil.cloneNode(currBinding);
+		for (Binding currBinding : bindingsMatching.getHeadOnly()) {
+			Binding cloneBinding = cloneNode(currBinding);
 			DiffHelper.setIsNewBinding(cloneBinding);
 			result.addBinding(cloneBinding);
 		}
@@ -485,75 +805,343 @@ public class ArchitecturesComparator {
 			ImplementationContainer headArchDef, Map<Object, Object> baseContext,
 			Map<Object, Object> headContext, ImplementationContainer result) {
 
-		Source[] baseSources = baseArchDef.getSources();
-		Source[] headSources = headArchDef.getSources();
+		// files are matched by path, inline C code blocks with each other
+		NodeMatcher.Result<Source> sourcesMatching = SOURCE_MATCHER.match(baseArchDef.getSources(), headArchDef.getSources());
 
-		// modifiable lists to keep track of who was met, and who is remaining
-		List<Source> baseSourcesList = new ArrayList<Source>(Arrays.asList(baseSources));
-		List<Source> headSourcesList = new ArrayList<Source>(Arrays.asList(headSources));
+		for (NodeMatcher.Match<Source> currMatch : sourcesMatching.getMatches()) {
+			// Instance is common to BASE and HEAD
 
-		for (Source currHeadSource : headSources) {
+			// Add a clone of the source in our new definition
+			Source cloneSource = cloneNode(currMatch.getHead());
+			result.addSource(cloneSource);
 
-			// Try to find the same sub-component in the original definition
-			for (Source currBaseSource : baseSources) {
+			// Same path (or both inline), compare contents
+			String baseSourceHash = sourceHasher.getSourceHash(currMatch.getBase(), baseContext);
+			String headSourceHash = sourceHasher.getSourceHash(currMatch.getHead(), headContext);
+			if (baseSourceHash == null ? headSourceHash != null : !baseSourceHash.equals(headSourceHash))
+				DiffHelper.setSourceContentChanged(cloneSource);
+		}
 
-				// file
-				String currHeadSourcePath = currHeadSource.getPath();
-				String currBaseSourcePath = currBaseSource.getPath();
+		// all the remaining referenced components exist in BASE but not in HEAD
+		for (Source currSource : sourcesMatching.getBaseOnly()) {
+			Source cloneSource = cloneNode(currSource);
+			DiffHelper.setIsOldSource(cloneSource);
+			result.addSource(cloneSource);
+		}
 
-				// inline
-				String currHeadSourceCCode = currHeadSource.getCCode();
-				String currBaseSourceCCode = currBaseSource.getCCode();
+		// all the remaining referenced components exist in HEAD but not in BASE
+		for (Source currSource : sourcesMatching.getHeadOnly()) {
+			Source cloneSource = cloneNode(currSource);
+			DiffHelper.setIsNewSource(cloneSource);
+			result.addSource(cloneSource);
+		}
 
-				if (currHeadSourcePath != null && currBaseSourcePath != null) {
+		return (Definition) result;
 
-					// only file name comparison, not content
-					if (currHeadSource.getPath().equals(currBaseSourcePath)) {
-						// Instance is common to BASE and HEAD
+	}
 
-						// Remove reference from list, so that in the end we know all the remaining ones (not found in HEAD)
-						// and treat them specially
-						baseSourcesList.remove(currBaseSource);
-						headSourcesList.remove(currHeadSource);
+	/**
+	 * Count the differences between two definition trees, without building any diff tree:
+	 * nodes are matched as by compareDefinitionTrees, but not cloned nor decorated.
+	 * Identical sub-trees are skipped when their fingerprints were computed already, added and removed
+	 * ones are not walked. Nature, interface contingency and cardinality changes are counted as changes.
+	 * 
+	 * @param baseArchDef the old definition
+	 * @param headArchDef the new definition
+	 * @param baseContext the compiler context for the old definition
+	 * @param headContext the compiler context for the new definition
+	 * @param failFast stop at the first difference found
+	 * @return the numbers of differences per level, only the first one in fail-fast mode
+	 * @throws ADLException
+	 */
+	public DiffSummary summarizeDefinitionTrees(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, boolean failFast) throws ADLException {
 
-						// Add a clone of the sub-component in our new definition
-						Source cloneItf = NodeUtil.cloneNode(currHeadSource);
-						result.addSource(cloneItf);
-					}
-				} else {
-					// with inline C code we do a full diff
-					if (currHeadSourceCCode != null && currBaseSourceCCode != null) {
-						// Instance is common to BASE and HEAD
+		diffSummaries.clear();
 
-						// Remove reference from list, so that in the end we know all the remaining ones (not found in HEAD)
-						// and treat them specially
-						baseSourcesList.remove(currBaseSource);
-						headSourcesList.remove(currHeadSource);
+		DiffSummary summary = new DiffSummary(failFast);
 
-						// Add a clone of the sub-component in our new definition
-						Source cloneItf = NodeUtil.cloneNode(currHeadSource);
-						result.addSource(cloneItf);
-					}
-				}
+		// the top-level itself
+		if (!baseArchDef.getName().equals(headArchDef.getName()))
+			summary.add(0, DiffSummary.COMPONENT, DiffSummary.CHANGED);
+		if (!summary.isComplete())
+			summarizeDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext, summary, 0);
+
+		return summary;
+	}
+
+	/**
+	 * @param level the level of the content of the compared definitions
+	 */
+	private void summarizeDefinitionTrees(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, DiffSummary summary, int level) throws ADLException {
+
+		// the content of the deepest instances is not walked
+		if (level > maxDepth)
+			return;
+
+		// only fingerprints computed already: at the root, computing them would walk
+		// the whole trees before the first difference is found
+		if (hasSameFingerprints(baseArchDef, headArchDef, baseContext, headContext))
+			return;
+
+		// walk until the first difference, or down to the depth limit
+		// (a pair summary would then depend on the level of the pair)
+		if (summary.isFailFast() || maxDepth != UNLIMITED_DEPTH) {
+			summarizeDefinitionsContent(baseArchDef, headArchDef, baseContext, headContext, summary, level);
+			return;
+		}
+
+		// A same pair instantiated many times is only walked once
+		DefinitionsPair key = new DefinitionsPair(baseArchDef.getName(), headArchDef.getName(), baseContext, headContext);
+		DiffSummary pairSummary = diffSummaries.get(key);
+		if (pairSummary == null) {
+			pairSummary = new DiffSummary(false);
+			summarizeDefinitionsContent(baseArchDef, headArchDef, baseContext, headContext, pairSummary, 0);
+			diffSummaries.put(key, pairSummary);
+		}
+		summary.addAll(pairSummary, level);
+	}
+
+	private void summarizeDefinitionsContent(Definition baseArchDef,
+			Definition headArchDef, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, DiffSummary summary, int level) throws ADLException {
+
+		// a change of nature is a change of the instance, even with empty containers
+		if (ASTHelper.isComposite(baseArchDef) != ASTHelper.isComposite(headArchDef)
+				|| ASTHelper.isPrimitive(baseArchDef) != ASTHelper.isPrimitive(headArchDef)
+				|| (baseArchDef instanceof BindingContainer) != (headArchDef instanceof BindingContainer)) {
+			summary.add(level, DiffSummary.COMPONENT, DiffSummary.CHANGED);
+			if (summary.isComplete())
+				return;
+		}
+
+		// missing containers are considered empty, as when the nature changed
+
+		NodeMatcher.Result<Interface> interfacesMatching = INTERFACE_MATCHER.match(
+				baseArchDef instanceof InterfaceContainer ? ((InterfaceContainer) baseArchDef).getInterfaces() : new Interface[0],
+				headArchDef instanceof InterfaceContainer ? ((InterfaceContainer) headArchDef).getInterfaces() : new Interface[0]);
+		for (NodeMatcher.Match<Interface> currMatch : interfacesMatching.getMatches())
+			if (isInterfaceChanged((MindInterface) currMatch.getBase(), (MindInterface) currMatch.getHead()))
+				summary.add(level, DiffSummary.INTERFACE, DiffSummary.CHANGED);
+		for (int i = 0; i < interfacesMatching.getBaseOnly().size(); i++)
+			summary.add(level, DiffSummary.INTERFACE, DiffSummary.REMOVED);
+		for (int i = 0; i < interfacesMatching.getHeadOnly().size(); i++)
+			summary.add(level, DiffSummary.INTERFACE, DiffSummary.ADDED);
+		if (summary.isComplete())
+			return;
+
+		NodeMatcher.Result<Binding> bindingsMatching = BINDING_MATCHER.match(
+				baseArchDef instanceof BindingContainer ? ((BindingContainer) baseArchDef).getBindings() : new Binding[0],
+				headArchDef instanceof BindingContainer ? ((BindingContainer) headArchDef).getBindings() : new Binding[0]);
+		if (statistics != null)
+			statistics.add(DiffStatistics.BINDINGS_COMPARED, bindingsMatching.getMatches().size()
+					+ bindingsMatching.getBaseOnly().size() + bindingsMatching.getHeadOnly().size());
+		for (int i = 0; i < bindingsMatching.getBaseOnly().size(); i++)
+			summary.add(level, DiffSummary.BINDING, DiffSummary.REMOVED);
+		for (int i = 0; i < bindingsMatching.getHeadOnly().size(); i++)
+			summary.add(level, DiffSummary.BINDING, DiffSummary.ADDED);
+		if (summary.isComplete())
+			return;
+
+		NodeMatcher.Result<Source> sourcesMatching = SOURCE_MATCHER.match(
+				baseArchDef instanceof ImplementationContainer ? ((ImplementationContainer) baseArchDef).getSources() : new Source[0],
+				headArchDef instanceof ImplementationContainer ? ((ImplementationContainer) headArchDef).getSources() : new Source[0]);
+		for (NodeMatcher.Match<Source> currMatch : sourcesMatching.getMatches()) {
+			String baseSourceHash = sourceHasher.getSourceHash(currMatch.getBase(), baseContext);
+			String headSourceHash = sourceHasher.getSourceHash(currMatch.getHead(), headContext);
+			if (baseSourceHash == null ? headSourceHash != null : !baseSourceHash.equals(headSourceHash)) {
+				summary.add(level, DiffSummary.SOURCE, DiffSummary.CHANGED);
+				if (summary.isComplete())
+					return;
 			}
 		}
+		for (int i = 0; i < sourcesMatching.getBaseOnly().size(); i++)
+			summary.add(level, DiffSummary.SOURCE, DiffSummary.REMOVED);
+		for (int i = 0; i < sourcesMatching.getHeadOnly().size(); i++)
+			summary.add(level, DiffSummary.SOURCE, DiffSummary.ADDED);
+		if (summary.isComplete())
+			return;
+
+		// sub-components last, so that the walk goes deeper only when needed
+		NodeMatcher.Result<Component> componentsMatching = COMPONENT_MATCHER.match(
+				baseArchDef instanceof ComponentContainer ? ((ComponentContainer) baseArchDef).getComponents() : new Component[0],
+				headArchDef instanceof ComponentContainer ? ((ComponentContainer) headArchDef).getComponents() : new Component[0]);
+		if (statistics != null)
+			statistics.add(DiffStatistics.COMPONENTS_MATCHED, componentsMatching.getMatches().size());
+		for (int i = 0; i < componentsMatching.getBaseOnly().size(); i++)
+			summary.add(level, DiffSummary.COMPONENT, DiffSummary.REMOVED);
+		for (int i = 0; i < componentsMatching.getHeadOnly().size(); i++)
+			summary.add(level, DiffSummary.COMPONENT, DiffSummary.ADDED);
+		if (summary.isComplete())
+			return;
+
+		for (NodeMatcher.Match<Component> currMatch : componentsMatching.getMatches()) {
+			Definition currBaseSubDef = resolveComponentDefinition(currMatch.getBase(), baseContext);
+			Definition currHeadSubDef = resolveComponentDefinition(currMatch.getHead(), headContext);
+			if (!currHeadSubDef.getName().equals(currBaseSubDef.getName()))
+				summary.add(level, DiffSummary.COMPONENT, DiffSummary.CHANGED);
+			if (!summary.isComplete())
+				summarizeDefinitionTrees(currBaseSubDef, currHeadSubDef, baseContext, headContext, summary, level + 1);
+			if (summary.isComplete())
+				return;
+		}
+	}
 
-		// all the remaining referenced components exist in BASE but not in HEAD
-		for (Source currSource : baseSourcesList) {
-			Source cloneItf = NodeUtil.cloneNode(currSource);
-			DiffHelper.setIsOldSource(cloneItf);
-			result.addSource(cloneItf);
+	/**
+	 * Compare the definitions of matched sibling sub-components, in parallel when configured
+	 * and when there are enough of them.
+	 * 
+	 * @return the diff definitions, in the same order as the given definitions
+	 */
+	private Definition[] compareSubDefinitionTrees(Definition[] baseSubDefs,
+			Definition[] headSubDefs, Map<Object, Object> baseContext,
+			Map<Object, Object> headContext, String[] subInstancePaths) throws ADLException {
+
+		Definition[] subResultDefs = new Definition[baseSubDefs.length];
+
+		if (forkJoinPool != null && baseSubDefs.length >= sequentialThreshold && ForkJoinTask.inForkJoinPool()) {
+			List<DefinitionTreesDiffTask> tasks = new ArrayList<DefinitionTreesDiffTask>(baseSubDefs.length);
+			for (int i = 0; i < baseSubDefs.length; i++)
+				tasks.add(new DefinitionTreesDiffTask(baseSubDefs[i], headSubDefs[i], baseContext, headContext, subInstancePaths[i]));
+
+			try {
+				ForkJoinTask.invokeAll(tasks);
+			} catch (RuntimeException e) {
+				throw unwrapADLException(e);
+			}
+
+			// keep the sequential order whatever the completion order
+			for (int i = 0; i < baseSubDefs.length; i++)
+				subResultDefs[i] = tasks.get(i).getRawResult();
+		} else {
+			for (int i = 0; i < baseSubDefs.length; i++)
+				subResultDefs[i] = compareDefinitionTrees(baseSubDefs[i], headSubDefs[i], baseContext, headContext, subInstancePaths[i]);
 		}
 
-		// all the remaining referenced components exist in HEAD but not in BASE
-		for (Source currSource : headSourcesList) {
-			Source cloneItf = NodeUtil.cloneNode(currSource);
-			DiffHelper.setIsNewSource(cloneItf);
-			result.addSource(cloneItf);
+		return subResultDefs;
+	}
+
+	private Definition resolveComponentDefinition(Component component, Map<Object, Object> context) throws ADLException {
+		synchronized (astLock) {
+			Definition definition = ASTHelper.getResolvedComponentDefinition(component, loaderItf, context);
+			if (statistics != null)
+				statistics.countDefinition(definition);
+			return definition;
 		}
+	}
 
-		return (Definition) result;
+	private <T extends Node> T cloneNode(T node) {
+		synchronized (astLock) {
+			return NodeUtil.cloneNode(node);
+		}
+	}
+
+	private <T> T turnsTo(Node node, Class<T> itfClass) {
+		synchronized (astLock) {
+			return CommonASTHelper.turnsTo(node, itfClass, nodeFactoryItf, nodeMergerItf);
+		}
+	}
+
+	private Definition newDefinitionNode() {
+		synchronized (astLock) {
+			return CommonASTHelper.newNode(nodeFactoryItf, "definition", Definition.class);
+		}
+	}
+
+	private DefinitionReference newDefinitionReference(String name) {
+		synchronized (astLock) {
+			return ASTHelper.newDefinitionReference(nodeFactoryItf, name);
+		}
+	}
+
+	/**
+	 * Exceptions thrown by tasks are wrapped, and may even be re-created when rethrown in another thread.
+	 * 
+	 * @return the original ADLException
+	 * @throws RuntimeException the given exception if it was not caused by an ADLException
+	 */
+	private static ADLException unwrapADLException(RuntimeException e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+			if (cause instanceof ADLException)
+				return (ADLException) cause;
+		throw e;
+	}
 
+	/**
+	 * Comparison of a definitions pair, as a fork/join task.
+	 */
+	private final class DefinitionTreesDiffTask extends RecursiveTask<Definition> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Definition baseArchDef;
+		private final Definition headArchDef;
+		private final Map<Object, Object> baseContext;
+		private final Map<Object, Object> headContext;
+		private final String instancePath;
+
+		DefinitionTreesDiffTask(Definition baseArchDef, Definition headArchDef,
+				Map<Object, Object> baseContext, Map<Object, Object> headContext, String instancePath) {
+			this.baseArchDef = baseArchDef;
+			this.headArchDef = headArchDef;
+			this.baseContext = baseContext;
+			this.headContext = headContext;
+			this.instancePath = instancePath;
+		}
+
+		@Override
+		protected Definition compute() {
+			try {
+				return compareDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext, instancePath);
+			} catch (ADLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Key of the diff results table: resolved definition names in their respective contexts.
+	 * Contexts are compared by identity.
+	 */
+	private static final class DefinitionsPair {
+
+		private final String baseDefName;
+		private final String headDefName;
+		private final Map<Object, Object> baseContext;
+		private final Map<Object, Object> headContext;
+
+		DefinitionsPair(String baseDefName, String headDefName,
+				Map<Object, Object> baseContext, Map<Object, Object> headContext) {
+			this.baseDefName = baseDefName;
+			this.headDefName = headDefName;
+			this.baseContext = baseContext;
+			this.headContext = headContext;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof DefinitionsPair))
+				return false;
+			DefinitionsPair other = (DefinitionsPair) obj;
+			return baseContext == other.baseContext
+					&& headContext == other.headContext
+					&& baseDefName.equals(other.baseDefName)
+					&& headDefName.equals(other.headDefName);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = baseDefName.hashCode();
+			hash = 31 * hash + headDefName.hashCode();
+			hash = 31 * hash + System.identityHashCode(baseContext);
+			hash = 31 * hash + System.identityHashCode(headContext);
+			return hash;
+		}
 	}
 
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import org.ow2.mind.adl.ast.Binding;
+
+/**
+ * Normalized identity of a binding: (fromComponent, fromInterface, fromNumber,
+ * toComponent, toInterface, toNumber), with absent interface numbers as "".
+ *
+ * Two bindings with equal keys are the same binding in BASE and HEAD.
+ * Keys are ordered server side first (as the .gv files bindings), then client side,
+ * then interface numbers.
+ */
+public final class BindingKey implements Comparable<BindingKey> {
+
+	private final String fromComponent;
+	private final String fromInterface;
+	private final String fromNumber;
+	private final String toComponent;
+	private final String toInterface;
+	private final String toNumber;
+
+	private final int hash;
+
+	public BindingKey(Binding binding) {
+		fromComponent = binding.getFromComponent();
+		fromInterface = binding.getFromInterface();
+		fromNumber = normalizeNumber(binding.getFromInterfaceNumber());
+		toComponent = binding.getToComponent();
+		toInterface = binding.getToInterface();
+		toNumber = normalizeNumber(binding.getToInterfaceNumber());
+
+		int h = fromComponent.hashCode();
+		h = 31 * h + fromInterface.hashCode();
+		h = 31 * h + fromNumber.hashCode();
+		h = 31 * h + toComponent.hashCode();
+		h = 31 * h + toInterface.hashCode();
+		h = 31 * h + toNumber.hashCode();
+		hash = h;
+	}
+
+	private static String normalizeNumber(String number) {
+		return number != null ? number : "";
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof BindingKey))
+			return false;
+		BindingKey other = (BindingKey) obj;
+		return hash == other.hash
+				&& fromComponent.equals(other.fromComponent)
+				&& fromInterface.equals(other.fromInterface)
+				&& fromNumber.equals(other.fromNumber)
+				&& toComponent.equals(other.toComponent)
+				&& toInterface.equals(other.toInterface)
+				&& toNumber.equals(other.toNumber);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	public int compareTo(BindingKey other) {
+		int result;
+
+		// Compare Servers
+		result = toComponent.compareTo(other.toComponent);
+		if (result != 0) return result;
+		result = toInterface.compareTo(other.toInterface);
+		if (result != 0) return result;
+
+		// Compare Clients
+		result = fromComponent.compareTo(other.fromComponent);
+		if (result != 0) return result;
+		result = fromInterface.compareTo(other.fromInterface);
+		if (result != 0) return result;
+
+		// Compare collection indexes
+		result = toNumber.compareTo(other.toNumber);
+		if (result != 0) return result;
+		return fromNumber.compareTo(other.fromNumber);
+	}
+
+	/**
+	 * @return the key as "fromComponent.fromInterface[fromNumber]->toComponent.toInterface[toNumber]",
+	 * numbers only being present for collection interfaces
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(fromComponent.length() + fromInterface.length()
+				+ toComponent.length() + toInterface.length() + 16);
+		appendEndPoint(sb, fromComponent, fromInterface, fromNumber);
+		sb.append("->");
+		appendEndPoint(sb, toComponent, toInterface, toNumber);
+		return sb.toString();
+	}
+
+	private static void appendEndPoint(StringBuilder sb, String component, String itf, String number) {
+		sb.append(component).append('.').append(itf);
+		if (number.length() != 0)
+			sb.append('[').append(number).append(']');
+	}
+}
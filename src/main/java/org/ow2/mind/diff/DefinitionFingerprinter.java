@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.objectweb.fractal.adl.ADLException;
+import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.interfaces.Interface;
+import org.objectweb.fractal.adl.interfaces.InterfaceContainer;
+import org.objectweb.fractal.adl.types.TypeInterface;
+import org.ow2.mind.adl.ast.ASTHelper;
+import org.ow2.mind.adl.ast.Binding;
+import org.ow2.mind.adl.ast.BindingContainer;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.ComponentContainer;
+import org.ow2.mind.adl.ast.ImplementationContainer;
+import org.ow2.mind.adl.ast.Source;
+
+/**
+ * Bottom-up structural fingerprint (Merkle hash) of the definitions loaded in a context.
+ *
+ * The fingerprint of a definition covers everything the comparison looks at:
+ * its nature, interfaces, sub-component names with their definition names and fingerprints,
+ * bindings, and sources contents, in declaration order.
+ * Two definitions with the same fingerprint thus compare without any difference.
+ *
+ * The dependencies fingerprint additionally covers what the generated outputs refer to:
+ * the locations (file and line) of the definitions and of their elements, the resolved
+ * source files, and the resolved IDL files of the interfaces with their contents, for the whole sub-tree. Together with the structural fingerprint, it tells
+ * whether the outputs of a previous run are still valid (see DiffCache).
+ *
+ * Fingerprints are computed once per definition node.
+ */
+public class DefinitionFingerprinter {
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Separates the hashed fields, can not appear in names */
+	private static final byte SEPARATOR = 0;
+
+	protected Loader loaderItf;
+	protected SourceHasher sourceHasher;
+
+	private final Map<Object, Object> context;
+
+	/** Lock serializing the loader accesses */
+	private final Object loaderLock;
+
+	/** Fingerprints by definition node, loaded definitions being cached by the loader */
+	private final Map<Definition, String> fingerprints = Collections.synchronizedMap(new IdentityHashMap<Definition, String>());
+
+	/** Dependencies fingerprints by definition node */
+	private final Map<Definition, String> dependenciesFingerprints = Collections.synchronizedMap(new IdentityHashMap<Definition, String>());
+
+	/**
+	 * @param loaderItf the loader used to resolve sub-component definitions
+	 * @param sourceHasher the hasher for source contents
+	 * @param context the context the fingerprinted definitions are loaded in
+	 * @param loaderLock the lock to hold when resolving definitions
+	 */
+	public DefinitionFingerprinter(Loader loaderItf, SourceHasher sourceHasher,
+			Map<Object, Object> context, Object loaderLock) {
+		this.loaderItf = loaderItf;
+		this.sourceHasher = sourceHasher;
+		this.context = context;
+		this.loaderLock = loaderLock;
+	}
+
+	/**
+	 * @param definition a definition loaded in the context of this fingerprinter
+	 * @return the structural fingerprint of the definition tree, as an hexadecimal string
+	 * @throws ADLException when a sub-component definition can not be resolved
+	 */
+	public String getFingerprint(Definition definition) throws ADLException {
+		String fingerprint = fingerprints.get(definition);
+		if (fingerprint == null) {
+			fingerprint = computeFingerprint(definition);
+			fingerprints.put(definition, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * @param definition a definition loaded in the context of this fingerprinter
+	 * @return the structural fingerprint of the definition tree if already computed, null otherwise
+	 * (nothing is resolved nor hashed)
+	 */
+	public String getCachedFingerprint(Definition definition) {
+		return fingerprints.get(definition);
+	}
+
+	/**
+	 * @param definition a definition loaded in the context of this fingerprinter
+	 * @return the fingerprint of the locations the outputs of the definition tree refer to,
+	 * as an hexadecimal string
+	 * @throws ADLException when a sub-component definition can not be resolved
+	 */
+	public String getDependenciesFingerprint(Definition definition) throws ADLException {
+		String fingerprint = dependenciesFingerprints.get(definition);
+		if (fingerprint == null) {
+			fingerprint = computeDependenciesFingerprint(definition);
+			dependenciesFingerprints.put(definition, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	private String computeFingerprint(Definition definition) throws ADLException {
+		MessageDigest digest = newDigest();
+
+		// nature
+		update(digest, ASTHelper.isComposite(definition) ? "composite" : "-");
+		update(digest, ASTHelper.isPrimitive(definition) ? "primitive" : "-");
+		update(digest, definition instanceof BindingContainer ? "bindings" : "-");
+
+		if (definition instanceof InterfaceContainer) {
+			update(digest, "interfaces");
+			for (Interface currItf : ((InterfaceContainer) definition).getInterfaces()) {
+				update(digest, currItf.getName());
+				if (currItf instanceof TypeInterface) {
+					TypeInterface currTypeItf = (TypeInterface) currItf;
+					update(digest, currTypeItf.getRole());
+					update(digest, currTypeItf.getSignature());
+					update(digest, currTypeItf.getContingency());
+					update(digest, currTypeItf.getCardinality());
+				}
+			}
+		}
+
+		if (definition instanceof ComponentContainer) {
+			update(digest, "components");
+			for (Component currComp : ((ComponentContainer) definition).getComponents()) {
+				Definition currCompDef;
+				synchronized (loaderLock) {
+					currCompDef = ASTHelper.getResolvedComponentDefinition(currComp, loaderItf, context);
+				}
+				update(digest, currComp.getName());
+				update(digest, currCompDef.getName());
+				// recursion
+				update(digest, getFingerprint(currCompDef));
+			}
+		}
+
+		if (definition instanceof BindingContainer) {
+			for (Binding currBinding : ((BindingContainer) definition).getBindings())
+				update(digest, new BindingKey(currBinding).toString());
+		}
+
+		if (definition instanceof ImplementationContainer) {
+			update(digest, "sources");
+			for (Source currSource : ((ImplementationContainer) definition).getSources()) {
+				update(digest, currSource.getPath());
+				update(digest, sourceHasher.getSourceHash(currSource, context));
+			}
+		}
+
+		return SourceHasher.toHex(digest.digest());
+	}
+
+	private String computeDependenciesFingerprint(Definition definition) throws ADLException {
+		MessageDigest digest = newDigest();
+
+		update(digest, definition.astGetSource());
+
+		if (definition instanceof InterfaceContainer) {
+			update(digest, "interfaces");
+			for (Interface currItf : ((InterfaceContainer) definition).getInterfaces()) {
+				update(digest, currItf.astGetSource());
+				// the IDL file the outputs link to, its content giving the linked line
+				if (currItf instanceof TypeInterface && ((TypeInterface) currItf).getSignature() != null) {
+					String signature = ((TypeInterface) currItf).getSignature();
+					update(digest, sourceHasher.getInterfaceLocation(signature, context));
+					update(digest, sourceHasher.getInterfaceHash(signature, context));
+				}
+			}
+		}
+
+		if (definition instanceof ComponentContainer) {
+			update(digest, "components");
+			for (Component currComp : ((ComponentContainer) definition).getComponents()) {
+				Definition currCompDef;
+				synchronized (loaderLock) {
+					currCompDef = ASTHelper.getResolvedComponentDefinition(currComp, loaderItf, context);
+				}
+				update(digest, currComp.astGetSource());
+				// recursion
+				update(digest, getDependenciesFingerprint(currCompDef));
+			}
+		}
+
+		if (definition instanceof BindingContainer) {
+			update(digest, "bindings");
+			for (Binding currBinding : ((BindingContainer) definition).getBindings())
+				update(digest, currBinding.astGetSource());
+		}
+
+		if (definition instanceof ImplementationContainer) {
+			update(digest, "sources");
+			for (Source currSource : ((ImplementationContainer) definition).getSources()) {
+				update(digest, currSource.astGetSource());
+				update(digest, sourceHasher.getSourceLocation(currSource, context));
+			}
+		}
+
+		return SourceHasher.toHex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if (value != null)
+			digest.update(value.getBytes(UTF8));
+		digest.update(SEPARATOR);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Persistent cache of the generated outputs, reused across runs.
+ *
+ * An entry tells which file was generated for the sub-tree at an instance path
+ * (relative to the top-level: "" for the top-level itself, ".a.b" for its sub-component b of a),
+ * and from which inputs: the key built from the fingerprints of the BASE and/or HEAD definitions
+ * of the sub-tree (see DefinitionFingerprinter), which cover the whole dependency closure of the sub-tree:
+ * ADL structures, sources contents, and the locations of the ADL elements and source files the outputs link to.
+ * An entry also records the entries of the sub-instances, with their keys: while the key is unchanged and
+ * the files of the whole sub-tree exist, as generated by the same run, the sub-tree does not need to be
+ * compared nor generated again.
+ *
+ * The cache is stored in the output directory, bounded in number of entries,
+ * the least recently used ones being evicted first.
+ * Entries are only valid for the salt they were written with: generation options, source paths...
+ */
+public class DiffCache {
+
+	public static final String CACHE_FILE_NAME = ".mind-diff-cache";
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	/** To be changed with any change of the generated outputs */
+	private static final String FORMAT_VERSION = "mind-diff-cache 3";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String FIELD_SEPARATOR = "\t";
+
+	private final File outputDir;
+	private final File cacheFile;
+	private final String header;
+
+	/** Entries by instance path, in access order */
+	private final Map<String, CacheEntry> entries;
+
+	/**
+	 * @param outputDir the directory of the generated files, where the cache is stored
+	 * @param salt the generation configuration, entries written with another configuration are discarded
+	 * @param maxEntries the maximal number of entries
+	 */
+	public DiffCache(File outputDir, String salt, final int maxEntries) {
+		this.outputDir = outputDir;
+		this.cacheFile = new File(outputDir, CACHE_FILE_NAME);
+		this.header = FORMAT_VERSION + " " + SourceHasher.hashString(salt);
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public static String pairKey(String baseFingerprint, String headFingerprint) {
+		return baseFingerprint + ":" + headFingerprint;
+	}
+
+	public static String oldKey(String baseFingerprint) {
+		return "old:" + baseFingerprint;
+	}
+
+	public static String newKey(String headFingerprint) {
+		return "new:" + headFingerprint;
+	}
+
+	/**
+	 * Read the entries of the previous run, if any.
+	 * A cache which can not be read, or written with another configuration, is ignored.
+	 */
+	public synchronized void load() {
+		entries.clear();
+		if (!cacheFile.isFile())
+			return;
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), UTF8));
+			try {
+				if (!header.equals(reader.readLine())) {
+					Launcher.logger.info("Diff cache: configuration changed, starting from scratch.");
+					return;
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// path, key, file, then path and key of each sub-instance
+					String[] fields = line.split(FIELD_SEPARATOR, -1);
+					if (fields.length >= 3 && fields.length % 2 == 1)
+						entries.put(fields[0], new CacheEntry(fields[1], fields[2], Arrays.copyOfRange(fields, 3, fields.length)));
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			Launcher.logger.log(Level.WARNING, "Could not read diff cache " + cacheFile + ": " + e.getMessage());
+			entries.clear();
+		}
+
+		Launcher.logger.fine("Diff cache: " + entries.size() + " entries loaded.");
+	}
+
+	/**
+	 * Write the entries, least recently used first so that the order is kept on reload.
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), UTF8));
+		try {
+			writer.write(header);
+			writer.write('\n');
+			for (Map.Entry<String, CacheEntry> currEntry : entries.entrySet()) {
+				writer.write(currEntry.getKey());
+				writer.write(FIELD_SEPARATOR);
+				writer.write(currEntry.getValue().key);
+				writer.write(FIELD_SEPARATOR);
+				writer.write(currEntry.getValue().fileName);
+				for (String currField : currEntry.getValue().subEntries) {
+					writer.write(FIELD_SEPARATOR);
+					writer.write(currField);
+				}
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+
+		// replace the previous cache at once
+		if (cacheFile.exists() && !cacheFile.delete())
+			throw new IOException("Could not replace " + cacheFile);
+		if (!tmpFile.renameTo(cacheFile))
+			throw new IOException("Could not rename " + tmpFile + " to " + cacheFile);
+	}
+
+	/**
+	 * @param instancePath the instance path relative to the top-level
+	 * @param key the key of the current inputs of the sub-tree
+	 * @return true when the outputs of the whole sub-tree were generated from the same inputs, and still exist
+	 */
+	public synchronized boolean isUpToDate(String instancePath, String key) {
+		CacheEntry entry = entries.get(instancePath);
+		return entry != null && entry.key.equals(key) && isSubTreeGenerated(entry);
+	}
+
+	/**
+	 * Sub-instance entries are looked up as well, so that they are not evicted before their parent.
+	 * @return true when the files of the entry and of its sub-instances exist, the sub-instance entries
+	 * being the ones recorded with the entry (not overwritten by a run with other inputs)
+	 */
+	private boolean isSubTreeGenerated(CacheEntry entry) {
+		if (!new File(outputDir, entry.fileName).isFile())
+			return false;
+		for (int i = 0; i < entry.subEntries.length; i += 2) {
+			CacheEntry subEntry = entries.get(entry.subEntries[i]);
+			if (subEntry == null || !subEntry.key.equals(entry.subEntries[i + 1]) || !isSubTreeGenerated(subEntry))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param instancePath the instance path relative to the top-level
+	 * @return the file generated for the instance, null if none
+	 */
+	public synchronized String getFileName(String instancePath) {
+		CacheEntry entry = entries.get(instancePath);
+		return entry != null ? entry.fileName : null;
+	}
+
+	/**
+	 * Record the output of a sub-tree, once all its files were generated.
+	 * The sub-instances are to be recorded first: without their entries, the sub-tree is not recorded.
+	 * @param instancePath the instance path relative to the top-level
+	 * @param key the key of the inputs of the sub-tree
+	 * @param fileName the file generated for the instance, relative to the output directory
+	 * @param subInstancePaths the paths of the sub-instances which have files, relative to the top-level
+	 */
+	public synchronized void put(String instancePath, String key, String fileName, Collection<String> subInstancePaths) {
+		String[] subEntries = new String[2 * subInstancePaths.size()];
+		int i = 0;
+		for (String currPath : subInstancePaths) {
+			CacheEntry subEntry = entries.get(currPath);
+			if (subEntry == null) {
+				entries.remove(instancePath);
+				return;
+			}
+			subEntries[i++] = currPath;
+			subEntries[i++] = subEntry.key;
+		}
+		entries.put(instancePath, new CacheEntry(key, fileName, subEntries));
+	}
+
+	/**
+	 * Forget the output of a sub-tree, which could not be completely generated.
+	 * @param instancePath the instance path relative to the top-level
+	 */
+	public synchronized void remove(String instancePath) {
+		entries.remove(instancePath);
+	}
+
+	private static final class CacheEntry {
+		final String key;
+		final String fileName;
+		/** Path and key of each sub-instance entry */
+		final String[] subEntries;
+
+		CacheEntry(String key, String fileName, String[] subEntries) {
+			this.key = key;
+			this.fileName = fileName;
+			this.subEntries = subEntries;
+		}
+	}
+}
@@ -23,6 +23,7 @@
 package org.ow2.mind.diff;
 
 import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.Node;
 import org.objectweb.fractal.adl.interfaces.Interface;
 import org.ow2.mind.adl.ast.Binding;
 import org.ow2.mind.adl.ast.Component;
@@ -30,10 +31,58 @@ import org.ow2.mind.adl.ast.Source;
 
 public class DiffHelper {
 
+	/*
+	 * All the diff flags of a node are held in a single decoration, as a bit set:
+	 * a single lookup gives them all (see getStatus), and a node carries one entry only.
+	 */
+
 	/** Decoration name */
-	private static String isNowPrimitive = "is-now-primitive";
-	/** Decoration name */
-	private static String isNowComposite = "is-now-composite";
+	private static String diffStatus = "diff-status";
+
+	/** Status flag: the node only exists in BASE (component, interface, binding, source) */
+	public static final int OLD = 1;
+	/** Status flag: the node only exists in HEAD (component, interface, binding, source) */
+	public static final int NEW = 1 << 1;
+	/**
+	 * Status flag: the node exists in BASE and HEAD, but differs:
+	 * the definition of a sub-component, the signature of an interface, the content of a source
+	 */
+	public static final int CHANGED = 1 << 2;
+	/** Status flag: the definition was composite, is now primitive */
+	public static final int NOW_PRIMITIVE = 1 << 3;
+	/** Status flag: the definition was primitive, is now composite */
+	public static final int NOW_COMPOSITE = 1 << 4;
+	/** Status flag: the definition now contains bindings */
+	public static final int NOW_BINDING_CONTAINER = 1 << 5;
+	/** Status flag: the definition does not contain bindings anymore */
+	public static final int NO_MORE_BINDING_CONTAINER = 1 << 6;
+	/** Status flag: see setDiffCached */
+	public static final int DIFF_CACHED = 1 << 7;
+	/** Status flag: see setDiffPartial */
+	public static final int DIFF_PARTIAL = 1 << 8;
+	/** Status flag: see setDiffTruncated */
+	public static final int DIFF_TRUNCATED = 1 << 9;
+	/** Status flag: see setIdentical */
+	public static final int IDENTICAL = 1 << 10;
+
+	/**
+	 * @param node a node of the diff tree
+	 * @return all the diff flags of the node, 0 if none
+	 */
+	public static int getStatus(Node node) {
+		Object status = node.astGetDecoration(diffStatus);
+		if (status != null)
+			return ((Integer) status).intValue();
+		return 0;
+	}
+
+	private static void setFlag(Node node, int flag) {
+		node.astSetDecoration(diffStatus, Integer.valueOf(getStatus(node) | flag));
+	}
+
+	private static boolean hasFlag(Node node, int flag) {
+		return (getStatus(node) & flag) != 0;
+	}
 
 	/**
 	 * Decorate the definition to reflect diff status:
@@ -41,7 +90,7 @@ public class DiffHelper {
 	 * @param definition
 	 */
 	public static void setDefinitionNowPrimitive(Definition definition) {
-		definition.astSetDecoration(isNowPrimitive, true);
+		setFlag(definition, NOW_PRIMITIVE);
 	}
 
 	/**
@@ -50,86 +99,90 @@ public class DiffHelper {
 	 * @param definition
 	 */
 	public static void setDefinitionNowComposite(Definition definition) {
-		definition.astSetDecoration(isNowComposite, true);
+		setFlag(definition, NOW_COMPOSITE);
 	}
 	
 	public static boolean isNowPrimitive(Definition definition) {
-		Object nowPrimitive = definition.astGetDecoration(isNowPrimitive);
-		if (nowPrimitive != null)
-			return ((Boolean) nowPrimitive).booleanValue();
-		return false;
+		return hasFlag(definition, NOW_PRIMITIVE);
 	}
 	
 	public static boolean isNowComposite(Definition definition) {
-		Object nowComposite = definition.astGetDecoration(isNowComposite);
-		if (nowComposite != null)
-			return ((Boolean) nowComposite).booleanValue();
-		return false;
+		return hasFlag(definition, NOW_COMPOSITE);
 	}
 	
-	/** Decoration name */
-	private static String oldComponent = "is-old-component";
-
-	/** Decoration name */
-	private static String newComponent = "is-new-component";
-	
 	public static void setIsOldComponent(
 			Component component) {
-		component.astSetDecoration(oldComponent, true);
+		setFlag(component, OLD);
 	}
 	
 	public static void setIsNewComponent(
 			Component component) {
-		component.astSetDecoration(newComponent, true);
+		setFlag(component, NEW);
 	}
 
 	public static boolean isOldComponent(Component component) {
-		Object oldComponentDecoration = component.astGetDecoration(oldComponent);
-		if (oldComponentDecoration != null)
-			return ((Boolean) oldComponentDecoration).booleanValue();
-		return false;
+		return hasFlag(component, OLD);
 	}
 	
 	public static boolean isNewComponent(Component component) {
-		Object newComponentDecoration = component.astGetDecoration(newComponent);
-		if (newComponentDecoration != null)
-			return ((Boolean) newComponentDecoration).booleanValue();
-		return false;
+		return hasFlag(component, NEW);
 	}
-	
-	/** Decoration name */
-	private static String oldBinding = "is-old-binding";
 
-	/** Decoration name */
-	private static String newBinding = "is-new-binding";
+	/**
+	 * Decorate a sub-component whose sub-tree is identical in BASE and HEAD
+	 * (or the top-level diff definition, when the whole trees are identical): nothing below differs.
+	 * With a depth limit, a diff definition is also flagged when nothing differs down to the limit.
+	 * @param node the sub-component, or the diff definition
+	 */
+	public static void setIdentical(Node node) {
+		setFlag(node, IDENTICAL);
+	}
 
+	public static boolean isIdentical(Node node) {
+		return hasFlag(node, IDENTICAL);
+	}
+
+	/** Status of a sub-tree: its nodes are only decorated when they differ */
+	public static final int NOT_INHERITED = 0;
+	/** Status of a sub-tree: it only exists in BASE, all its nodes are old */
+	public static final int INHERITED_OLD = OLD;
+	/** Status of a sub-tree: it only exists in HEAD, all its nodes are new */
+	public static final int INHERITED_NEW = NEW;
+
+	/**
+	 * The nodes below an old (resp. new) sub-component are not decorated, since they belong
+	 * to the BASE (resp. HEAD) definitions shared with the other instances:
+	 * they inherit the status of the nearest decorated sub-component instead,
+	 * which is resolved when walking down the diff tree.
+	 * Since it is the OLD or NEW flag, the status of a node of the sub-tree is: inheritedStatus | getStatus(node).
+	 * @param component a sub-component
+	 * @param inheritedStatus the status inherited from the enclosing components
+	 * @return the status inherited by the sub-tree of the component
+	 */
+	public static int getInheritedStatus(Component component, int inheritedStatus) {
+		if (inheritedStatus != NOT_INHERITED)
+			return inheritedStatus;
+		return getStatus(component) & (OLD | NEW);
+	}
+	
 	public static void setIsOldBinding(
 			Binding binding) {
-		binding.astSetDecoration(oldBinding, true);
+		setFlag(binding, OLD);
 	}
 	
 	public static void setIsNewBinding(
 			Binding binding) {
-		binding.astSetDecoration(newBinding, true);
+		setFlag(binding, NEW);
 	}
 	
 	public static boolean isOldBinding(Binding binding) {
-		Object oldBindingDecoration = binding.astGetDecoration(oldBinding);
-		if (oldBindingDecoration != null)
-			return ((Boolean) oldBindingDecoration).booleanValue();
-		return false;
+		return hasFlag(binding, OLD);
 	}
 	
 	public static boolean isNewBinding(Binding binding) {
-		Object newBindingDecoration = binding.astGetDecoration(newBinding);
-		if (newBindingDecoration != null)
-			return ((Boolean) newBindingDecoration).booleanValue();
-		return false;
+		return hasFlag(binding, NEW);
 	}
 	
-	/** Decoration name */
-	private static String definitionChanged = "definition-changed";
-
 	/**
 	 * Decorate the definition to reflect diff status:
 	 * BASE sub-component definition != HEAD sub-component definition.
@@ -137,79 +190,78 @@ public class DiffHelper {
 	 */
 	public static void setSubCompDefChanged(
 			Component component) {
-		component.astSetDecoration(definitionChanged, true);
+		setFlag(component, CHANGED);
 	}
 	
 	public static boolean hasSubCompDefChanged(Component component) {
-		Object definitionChangedDecoration = component.astGetDecoration(definitionChanged);
-		if (definitionChangedDecoration != null)
-			return ((Boolean) definitionChangedDecoration).booleanValue();
-		return false;
+		return hasFlag(component, CHANGED);
 	}
 
 	/** Decoration name */
-	private static String nowBindingContainer = "is-now-binding-container";
+	private static String definitionNames = "definition-names";
 
-	/** Decoration name */
-	private static String noMoreBindingContainer = "is-no-more-binding-container";
+	/**
+	 * Decorate a sub-component existing in BASE and HEAD with the names of its definitions,
+	 * its definition reference pointing to the diff definition instead.
+	 * @param component
+	 * @param baseDefinitionName
+	 * @param headDefinitionName
+	 */
+	public static void setDefinitionNames(Component component, String baseDefinitionName, String headDefinitionName) {
+		component.astSetDecoration(definitionNames, new String[] { baseDefinitionName, headDefinitionName });
+	}
+
+	/**
+	 * @return the name of the BASE definition of the sub-component, null when not set (see setDefinitionNames)
+	 */
+	public static String getBaseDefinitionName(Component component) {
+		String[] names = (String[]) component.astGetDecoration(definitionNames);
+		return names != null ? names[0] : null;
+	}
+
+	/**
+	 * @return the name of the HEAD definition of the sub-component, null when not set (see setDefinitionNames)
+	 */
+	public static String getHeadDefinitionName(Component component) {
+		String[] names = (String[]) component.astGetDecoration(definitionNames);
+		return names != null ? names[1] : null;
+	}
 
 	public static void setDefNowBindingContainer(
 			Definition definition) {
-		definition.astSetDecoration(nowBindingContainer, true);
+		setFlag(definition, NOW_BINDING_CONTAINER);
 	}
 
 	public static void setDefNoMoreBindingContainer(
 			Definition definition) {
-		definition.astSetDecoration(noMoreBindingContainer, true);
+		setFlag(definition, NO_MORE_BINDING_CONTAINER);
 	}
 	
 	public static boolean isNowBindingContainer(Definition definition) {
-		Object nowBindingContainerDecoration = definition.astGetDecoration(nowBindingContainer);
-		if (nowBindingContainerDecoration != null)
-			return ((Boolean) nowBindingContainerDecoration).booleanValue();
-		return false;
+		return hasFlag(definition, NOW_BINDING_CONTAINER);
 	}
 	
 	public static boolean isNoMoreBindingContainer(Definition definition) {
-		Object noMoreBindingContainerDecoration = definition.astGetDecoration(noMoreBindingContainer);
-		if (noMoreBindingContainerDecoration != null)
-			return ((Boolean) noMoreBindingContainerDecoration).booleanValue();
-		return false;
+		return hasFlag(definition, NO_MORE_BINDING_CONTAINER);
 	}
 
-	
-	/** Decoration name */
-	private static String oldInterface = "is-old-interface";
-	
-	/** Decoration name */
-	private static String newInterface = "is-new-interface";
-	
 	public static void setIsOldInterface(Interface itf) {
-		itf.astSetDecoration(oldInterface, true);		
+		setFlag(itf, OLD);
 	}
 	
 	public static void setIsNewInterface(Interface itf) {
-		itf.astSetDecoration(newInterface, true);		
+		setFlag(itf, NEW);
 	}
 	
 	public static boolean isOldInterface(Interface itf) {
-		Object oldInterfaceDecoration = itf.astGetDecoration(oldInterface);
-		if (oldInterfaceDecoration != null)
-			return ((Boolean) oldInterfaceDecoration).booleanValue();
-		return false;
+		return hasFlag(itf, OLD);
 	}
 	
 	public static boolean isNewInterface(Interface itf) {
-		Object newInterfaceDecoration = itf.astGetDecoration(newInterface);
-		if (newInterfaceDecoration != null)
-			return ((Boolean) newInterfaceDecoration).booleanValue();
-		return false;
+		return hasFlag(itf, NEW);
 	}
 
 	
-	/** Decoration name */
-	private static String interfaceDefinitionChanged = "interface-definition-changed";
-
 	/**
 	 * Decorate the definition to reflect diff status:
 	 * BASE sub-component definition != HEAD sub-component definition.
@@ -217,43 +269,100 @@ public class DiffHelper {
 	 */
 	public static void setInterfaceDefinitionChanged(
 			Interface itf) {
-		itf.astSetDecoration(interfaceDefinitionChanged, true);
+		setFlag(itf, CHANGED);
 	}
 	
 	public static boolean hasInterfaceDefinitionChanged(Interface itf) {
-		Object interfaceDefinitionChangedDecoration = itf.astGetDecoration(interfaceDefinitionChanged);
-		if (interfaceDefinitionChangedDecoration != null)
-			return ((Boolean) interfaceDefinitionChangedDecoration).booleanValue();
-		return false;
+		return hasFlag(itf, CHANGED);
 	}
 
-	
-	/** Decoration name */
-	private static String oldSource = "is-old-source";
-	
-	/** Decoration name */
-	private static String newSource = "is-new-source";
-	
 	public static void setIsOldSource(Source source) {
-		source.astSetDecoration(oldSource, true);		
+		setFlag(source, OLD);
 	}
 
 	public static void setIsNewSource(Source source) {
-		source.astSetDecoration(newSource, true);	
+		setFlag(source, NEW);
 	}
 	
 	public static boolean isOldSource(Source source) {
-		Object oldSourceDecoration = source.astGetDecoration(oldSource);
-		if (oldSourceDecoration != null)
-			return ((Boolean) oldSourceDecoration).booleanValue();
-		return false;
+		return hasFlag(source, OLD);
 	}
 	
 	public static boolean isNewSource(Source source) {
-		Object newSourceDecoration = source.astGetDecoration(newSource);
-		if (newSourceDecoration != null)
-			return ((Boolean) newSourceDecoration).booleanValue();
-		return false;
+		return hasFlag(source, NEW);
+	}
+	
+	/**
+	 * Decorate the source to reflect diff status:
+	 * BASE and HEAD sources have the same path (or are both inline), but different contents.
+	 * @param source
+	 */
+	public static void setSourceContentChanged(Source source) {
+		setFlag(source, CHANGED);
+	}
+	
+	public static boolean hasSourceContentChanged(Source source) {
+		return hasFlag(source, CHANGED);
+	}
+	
+	/** Decoration name */
+	private static String diffKey = "diff-key";
+
+	/**
+	 * Decorate a sub-component (or the top-level diff definition) with the key of its sub-tree
+	 * in the persistent diff cache, built from the fingerprints of its BASE and/or HEAD definitions.
+	 * @param node
+	 * @param key
+	 * @see DiffCache
+	 */
+	public static void setDiffKey(Node node, String key) {
+		node.astSetDecoration(diffKey, key);
+	}
+
+	/**
+	 * @return the key of the sub-tree in the persistent diff cache, null if none
+	 */
+	public static String getDiffKey(Node node) {
+		return (String) node.astGetDecoration(diffKey);
+	}
+
+	/**
+	 * Decorate the diff definition to reflect that its sub-tree was not compared,
+	 * its output being up-to-date in the persistent diff cache: only its interfaces are available.
+	 * @param definition
+	 */
+	public static void setDiffCached(Definition definition) {
+		setFlag(definition, DIFF_CACHED);
+	}
+
+	public static boolean isDiffCached(Definition definition) {
+		return hasFlag(definition, DIFF_CACHED);
+	}
+
+	/**
+	 * Decorate the diff definition to reflect that its sub-tree was not compared,
+	 * being deeper than the depth limit: only its interfaces are available.
+	 * @param definition
+	 */
+	public static void setDiffTruncated(Definition definition) {
+		setFlag(definition, DIFF_TRUNCATED);
+	}
+
+	public static boolean isDiffTruncated(Definition definition) {
+		return hasFlag(definition, DIFF_TRUNCATED);
+	}
+
+	/**
+	 * Decorate the diff definition to reflect that some of its sub-trees were not compared
+	 * (see setDiffCached and setDiffTruncated): it is only valid at its instance path.
+	 * @param definition
+	 */
+	public static void setDiffPartial(Definition definition) {
+		setFlag(definition, DIFF_PARTIAL);
+	}
+
+	public static boolean isDiffPartial(Definition definition) {
+		return hasFlag(definition, DIFF_PARTIAL);
 	}
 	
 }
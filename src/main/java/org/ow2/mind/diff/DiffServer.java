@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running diff server, keeping the injector, the loaders and their caches warm between diffs.
+ *
+ * It listens on the loopback interface only, and handles one request at a time:
+ * <ul>
+ * <li>GET /diff?base=&lt;definition&gt;[&amp;head=&lt;definition&gt;][&amp;dir=&lt;directory&gt;]:
+ * compare the definitions and generate the .gv files in the given sub-directory of the output directory
+ * (same default as in batch mode). The response is "&lt;status&gt; TAB &lt;directory path&gt;".</li>
+ * <li>POST /stop: stop the server.</li>
+ * </ul>
+ * When a file of the source directories of BASE or HEAD changes, the context of that side is re-created
+ * from its initial state before the next diff, so that no stale definition is used; the other side
+ * keeps its loaded definitions. Errors are forgotten at each diff.
+ * Sources read from git revisions are not watched.
+ */
+public class DiffServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Launcher launcher;
+	private final int port;
+	private final SourceWatcher baseSourceWatcher;
+	private final SourceWatcher headSourceWatcher;
+
+	/** Shared by successive diffs */
+	private ArchitecturesComparator archComparator;
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * @param launcher the initialized launcher
+	 * @param port the port to listen on
+	 * @param baseSourceWatcher the watcher of the BASE source directories
+	 * @param headSourceWatcher the watcher of the HEAD source directories
+	 */
+	public DiffServer(Launcher launcher, int port, SourceWatcher baseSourceWatcher, SourceWatcher headSourceWatcher) {
+		this.launcher = launcher;
+		this.port = port;
+		this.baseSourceWatcher = baseSourceWatcher;
+		this.headSourceWatcher = headSourceWatcher;
+	}
+
+	/**
+	 * Serve until a stop request.
+	 * @throws IOException when the port can not be listened on
+	 */
+	public void run() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+		// diffs are serialized: loaders are not thread-safe
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		server.setExecutor(executor);
+
+		server.createContext("/diff", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleDiff(exchange);
+			}
+		});
+		server.createContext("/stop", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				// a mere GET (link prefetch, crawler...) must not stop the server
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					reply(exchange, 405, "use POST to stop the server\n");
+					return;
+				}
+				reply(exchange, 200, "stopping\n");
+				stopped.countDown();
+			}
+		});
+
+		archComparator = launcher.newArchitecturesComparator();
+		server.start();
+		Launcher.logger.info("Diff server listening on " + server.getAddress());
+
+		try {
+			stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			server.stop(0);
+			executor.shutdown();
+			archComparator.shutdown();
+			baseSourceWatcher.close();
+			headSourceWatcher.close();
+			Launcher.logger.info("Diff server stopped.");
+		}
+	}
+
+	private void handleDiff(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		String base = parameters.get("base");
+		if (base == null) {
+			reply(exchange, 400, "missing 'base' parameter\n");
+			return;
+		}
+		String head = parameters.containsKey("head") ? parameters.get("head") : base;
+		String dir = parameters.containsKey("dir") ? parameters.get("dir") : (base.equals(head) ? base : base + "_vs_" + head);
+
+		// only sub-directories of the output directory
+		if (new File(dir).isAbsolute() || dir.contains("..")) {
+			reply(exchange, 400, "invalid 'dir' parameter\n");
+			return;
+		}
+
+		File outputDir = new File(launcher.getOutputDir(), dir);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			reply(exchange, 500, "could not create " + outputDir + "\n");
+			return;
+		}
+
+		try {
+			// loaded definitions are stale: only on the side whose sources changed
+			if (baseSourceWatcher.hasChanged()) {
+				Launcher.logger.info("BASE sources changed, reloading.");
+				archComparator.forgetContext(launcher.baseContext);
+				launcher.resetBaseContext();
+			}
+			if (headSourceWatcher.hasChanged()) {
+				Launcher.logger.info("HEAD sources changed, reloading.");
+				archComparator.forgetContext(launcher.headContext);
+				launcher.resetHeadContext();
+			}
+
+			// errors of the previous diffs are not this one's
+			launcher.clearErrors();
+
+			launcher.baseAdlName = base;
+			launcher.headAdlName = head;
+			Launcher.logger.info("BASE: " + base + " - HEAD: " + head + " (" + dir + ")");
+			String status = launcher.diffArchitectures(archComparator, outputDir);
+
+			reply(exchange, Launcher.STATUS_ERROR.equals(status) ? 500 : 200, status + "\t" + outputDir.getAbsolutePath() + "\n");
+		} catch (RuntimeException e) {
+			Launcher.logger.log(Level.SEVERE, "Diff failed", e);
+			reply(exchange, 500, Launcher.STATUS_ERROR + "\t" + e + "\n");
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null)
+			return parameters;
+		for (String parameter : query.split("&")) {
+			int i = parameter.indexOf('=');
+			if (i > 0)
+				parameters.put(URLDecoder.decode(parameter.substring(0, i), "UTF-8"), URLDecoder.decode(parameter.substring(i + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static void reply(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		try {
+			os.write(bytes);
+		} finally {
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.objectweb.fractal.adl.Definition;
+
+/**
+ * Wall time, CPU time and allocated bytes of the phases of a diff, and counts of the handled elements.
+ *
+ * CPU time and allocated bytes are the ones of the thread running the phase: the worker threads
+ * of a parallel comparison or generation (--diff-jobs, --dot-jobs) are not accounted for.
+ * They are -1 when the JVM does not support their measurement.
+ *
+ * Each phase is also recorded as a JFR event ("org.ow2.mind.diff.Phase"), and the counts as a
+ * "org.ow2.mind.diff.Diff" event, when running on a JVM with Flight Recorder (see JfrEvents).
+ */
+public class DiffStatistics {
+
+	public static final int BASE_LOAD = 0;
+	public static final int HEAD_LOAD = 1;
+	public static final int COMPARE = 2;
+	/** .gv files generation, or JSON export */
+	public static final int OUTPUT = 3;
+
+	/** Distinct definitions resolved from the loaders */
+	public static final int DEFINITIONS_LOADED = 0;
+	/** Sub-components common to BASE and HEAD */
+	public static final int COMPONENTS_MATCHED = 1;
+	/** BASE and HEAD bindings matched against each other */
+	public static final int BINDINGS_COMPARED = 2;
+	public static final int FILES_WRITTEN = 3;
+
+	private static final String[] PHASE_NAMES = { "base-load", "head-load", "compare", "output" };
+	private static final String[] COUNTER_NAMES = { "definitionsLoaded", "componentsMatched", "bindingsCompared", "filesWritten" };
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	private final long[] wallTimes = new long[PHASE_NAMES.length];
+	private final long[] cpuTimes = new long[PHASE_NAMES.length];
+	private final long[] allocatedBytes = new long[PHASE_NAMES.length];
+	private final boolean[] measured = new boolean[PHASE_NAMES.length];
+
+	private final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+
+	/** Definitions already counted, compared by identity as the loaders cache them */
+	private final Set<Definition> definitions = Collections.newSetFromMap(new IdentityHashMap<Definition, Boolean>());
+
+	/**
+	 * A running phase, to be stopped by the thread which started it.
+	 */
+	public final class Phase {
+		private final int phase;
+		private final long startWallTime;
+		private final long startCpuTime;
+		private final long startAllocatedBytes;
+		private final Object event;
+
+		private Phase(int phase) {
+			this.phase = phase;
+			this.event = JfrEvents.beginPhase();
+			this.startCpuTime = getCurrentThreadCpuTime();
+			this.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+			this.startWallTime = System.nanoTime();
+		}
+
+		public void stop() {
+			long wallTime = System.nanoTime() - startWallTime;
+			long cpuTime = startCpuTime < 0 ? -1 : getCurrentThreadCpuTime() - startCpuTime;
+			long allocated = startAllocatedBytes < 0 ? -1 : getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+
+			synchronized (DiffStatistics.this) {
+				wallTimes[phase] += wallTime;
+				cpuTimes[phase] = cpuTime < 0 || (measured[phase] && cpuTimes[phase] < 0) ? -1 : cpuTimes[phase] + cpuTime;
+				allocatedBytes[phase] = allocated < 0 || (measured[phase] && allocatedBytes[phase] < 0) ? -1 : allocatedBytes[phase] + allocated;
+				measured[phase] = true;
+			}
+
+			JfrEvents.commitPhase(event, PHASE_NAMES[phase], wallTime, cpuTime, allocated);
+		}
+	}
+
+	/**
+	 * Start measuring a phase in the current thread. A phase run several times is summed up.
+	 * @param phase BASE_LOAD, HEAD_LOAD, COMPARE or OUTPUT
+	 */
+	public Phase startPhase(int phase) {
+		return new Phase(phase);
+	}
+
+	/**
+	 * @param counter DEFINITIONS_LOADED, COMPONENTS_MATCHED, BINDINGS_COMPARED or FILES_WRITTEN
+	 */
+	public void add(int counter, long delta) {
+		counters.addAndGet(counter, delta);
+	}
+
+	public void increment(int counter) {
+		counters.incrementAndGet(counter);
+	}
+
+	/**
+	 * Count a resolved definition, once whatever the number of its instances.
+	 */
+	public void countDefinition(Definition definition) {
+		synchronized (definitions) {
+			if (!definitions.add(definition))
+				return;
+		}
+		counters.incrementAndGet(DEFINITIONS_LOADED);
+	}
+
+	public synchronized boolean isMeasured(int phase) {
+		return measured[phase];
+	}
+
+	/**
+	 * @return the wall time of the phase, in nanoseconds
+	 */
+	public synchronized long getWallTime(int phase) {
+		return wallTimes[phase];
+	}
+
+	/**
+	 * @return the CPU time of the phase, in nanoseconds, -1 when not supported
+	 */
+	public synchronized long getCpuTime(int phase) {
+		return cpuTimes[phase];
+	}
+
+	/**
+	 * @return the bytes allocated during the phase, -1 when not supported
+	 */
+	public synchronized long getAllocatedBytes(int phase) {
+		return allocatedBytes[phase];
+	}
+
+	public long getCounter(int counter) {
+		return counters.get(counter);
+	}
+
+	/**
+	 * Record the counts as a JFR event, once the diff is over.
+	 */
+	public void commitDiffEvent(String baseName, String headName, String status) {
+		JfrEvents.commitDiff(baseName, headName, status, getCounter(DEFINITIONS_LOADED), getCounter(COMPONENTS_MATCHED),
+				getCounter(BINDINGS_COMPARED), getCounter(FILES_WRITTEN));
+	}
+
+	/**
+	 * Write the statistics as a JSON object:
+	 * <pre>
+	 * {"base":"pkg.Base","head":"pkg.Head","status":"different",
+	 *  "phases":{"base-load":{"wallTimeNanos":...,"cpuTimeNanos":...,"allocatedBytes":...},...},
+	 *  "counters":{"definitionsLoaded":...,"componentsMatched":...,"bindingsCompared":...,"filesWritten":...}}
+	 * </pre>
+	 * Phases which did not run are omitted, as well as the unsupported measures.
+	 */
+	public synchronized void writeJson(Writer out, String baseName, String headName, String status) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"base\": ").append(quote(baseName)).append(",\n");
+		sb.append("  \"head\": ").append(quote(headName)).append(",\n");
+		sb.append("  \"status\": ").append(quote(status)).append(",\n");
+
+		sb.append("  \"phases\": {");
+		boolean first = true;
+		for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+			if (!measured[phase])
+				continue;
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    ").append(quote(PHASE_NAMES[phase])).append(": {\"wallTimeNanos\": ").append(wallTimes[phase]);
+			if (cpuTimes[phase] >= 0)
+				sb.append(", \"cpuTimeNanos\": ").append(cpuTimes[phase]);
+			if (allocatedBytes[phase] >= 0)
+				sb.append(", \"allocatedBytes\": ").append(allocatedBytes[phase]);
+			sb.append('}');
+		}
+		sb.append(first ? "},\n" : "\n  },\n");
+
+		sb.append("  \"counters\": {\n");
+		for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+			sb.append("    ").append(quote(COUNTER_NAMES[counter])).append(": ").append(counters.get(counter));
+			sb.append(counter + 1 < COUNTER_NAMES.length ? ",\n" : "\n");
+		}
+		sb.append("  }\n}\n");
+
+		out.write(sb.toString());
+	}
+
+	/**
+	 * @return e.g. "base-load 120 ms, head-load 95 ms, compare 31 ms, output 210 ms; 42 definitionsLoaded, ..."
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+			if (!measured[phase])
+				continue;
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(PHASE_NAMES[phase]).append(' ').append(wallTimes[phase] / 1000000).append(" ms");
+		}
+		sb.append(';');
+		for (int counter = 0; counter < COUNTER_NAMES.length; counter++)
+			sb.append(counter == 0 ? " " : ", ").append(counters.get(counter)).append(' ').append(COUNTER_NAMES[counter]);
+		return sb.toString();
+	}
+
+	private static String quote(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static long getCurrentThreadCpuTime() {
+		if (!THREAD_BEAN.isCurrentThreadCpuTimeSupported() || !THREAD_BEAN.isThreadCpuTimeEnabled())
+			return -1;
+		return THREAD_BEAN.getCurrentThreadCpuTime();
+	}
+
+	private static long getCurrentThreadAllocatedBytes() {
+		if (!(THREAD_BEAN instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+		if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
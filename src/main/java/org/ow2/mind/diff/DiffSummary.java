@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numbers of added, removed and changed elements of a diff, per level of the instance tree
+ * (level 0 being the content of the top-level definition), as computed by
+ * ArchitecturesComparator.summarizeDefinitionTrees without building any diff tree.
+ *
+ * Added and removed sub-components are counted once, their own content is not walked.
+ * A sub-component is changed when its definition name changed, an interface when its signature changed,
+ * a source when its content changed.
+ */
+public class DiffSummary {
+
+	public static final int COMPONENT = 0;
+	public static final int INTERFACE = 1;
+	public static final int BINDING = 2;
+	public static final int SOURCE = 3;
+
+	public static final int ADDED = 0;
+	public static final int REMOVED = 1;
+	public static final int CHANGED = 2;
+
+	private static final String[] ELEMENT_NAMES = { "components", "interfaces", "bindings", "sources" };
+	private static final String[] CHANGE_NAMES = { "added", "removed", "changed" };
+
+	private static final int COUNTERS_NB = ELEMENT_NAMES.length * CHANGE_NAMES.length;
+
+	/** Counters by level, indexed by element * 3 + change */
+	private final List<int[]> levels = new ArrayList<int[]>();
+
+	private final boolean failFast;
+
+	private int differencesNb = 0;
+
+	/**
+	 * @param failFast when true, the summary is complete as soon as a difference is found
+	 */
+	public DiffSummary(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	/**
+	 * Count a difference.
+	 * @param level the level of the instance tree
+	 * @param element COMPONENT, INTERFACE, BINDING or SOURCE
+	 * @param change ADDED, REMOVED or CHANGED
+	 */
+	public void add(int level, int element, int change) {
+		while (levels.size() <= level)
+			levels.add(new int[COUNTERS_NB]);
+		levels.get(level)[element * CHANGE_NAMES.length + change]++;
+		differencesNb++;
+	}
+
+	/**
+	 * Count the differences of another summary.
+	 * @param summary the summary of a sub-tree
+	 * @param levelOffset the level of the sub-tree root content
+	 */
+	public void addAll(DiffSummary summary, int levelOffset) {
+		while (levels.size() < summary.levels.size() + levelOffset)
+			levels.add(new int[COUNTERS_NB]);
+		for (int level = 0; level < summary.levels.size(); level++) {
+			int[] counters = summary.levels.get(level);
+			int[] sums = levels.get(level + levelOffset);
+			for (int i = 0; i < COUNTERS_NB; i++)
+				sums[i] += counters[i];
+		}
+		differencesNb += summary.differencesNb;
+	}
+
+	/**
+	 * @return true when the walk can stop: a difference was found in fail-fast mode
+	 */
+	public boolean isComplete() {
+		return failFast && differencesNb > 0;
+	}
+
+	public boolean isFailFast() {
+		return failFast;
+	}
+
+	public boolean hasDifferences() {
+		return differencesNb > 0;
+	}
+
+	/**
+	 * @return the total number of differences
+	 */
+	public int getDifferencesNb() {
+		return differencesNb;
+	}
+
+	/**
+	 * @return the number of differences of the given kind at the given level
+	 */
+	public int getCount(int level, int element, int change) {
+		if (level >= levels.size())
+			return 0;
+		return levels.get(level)[element * CHANGE_NAMES.length + change];
+	}
+
+	public int getLevelsNb() {
+		return levels.size();
+	}
+
+	/**
+	 * @return one line per level with differences, e.g. "level 1: components +2 -0 ~1, bindings +3 -1 ~0"
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int level = 0; level < levels.size(); level++) {
+			int[] counters = levels.get(level);
+			StringBuilder line = new StringBuilder();
+			for (int element = 0; element < ELEMENT_NAMES.length; element++) {
+				int offset = element * CHANGE_NAMES.length;
+				if (counters[offset + ADDED] + counters[offset + REMOVED] + counters[offset + CHANGED] == 0)
+					continue;
+				if (line.length() > 0)
+					line.append(", ");
+				line.append(ELEMENT_NAMES[element]).append(" +").append(counters[offset + ADDED])
+					.append(" -").append(counters[offset + REMOVED]).append(" ~").append(counters[offset + CHANGED]);
+			}
+			if (line.length() > 0)
+				sb.append("level ").append(level).append(": ").append(line).append('\n');
+		}
+		return sb.toString();
+	}
+}
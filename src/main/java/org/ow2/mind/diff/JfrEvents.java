@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Flight Recorder events of the diff statistics.
+ *
+ * The jdk.jfr API only exists on recent JVMs: event types are defined at run-time through
+ * jdk.jfr.EventFactory, by reflection. On other JVMs, nothing is recorded.
+ * Events are only written when a recording is running (e.g. -XX:StartFlightRecording).
+ */
+final class JfrEvents {
+
+	/** jdk.jfr.EventFactory of the "Phase" and "Diff" events, null when JFR is not available */
+	private static final Object PHASE_FACTORY;
+	private static final Object DIFF_FACTORY;
+
+	private static final Method NEW_EVENT;
+	private static final Method BEGIN;
+	private static final Method SET;
+	private static final Method COMMIT;
+
+	static {
+		Object phaseFactory = null;
+		Object diffFactory = null;
+		Method newEvent = null;
+		Method begin = null;
+		Method set = null;
+		Method commit = null;
+
+		try {
+			Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+			Constructor<?> annotation = annotationElementClass.getConstructor(Class.class, Object.class);
+			Constructor<?> field = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+			Method create = eventFactoryClass.getMethod("create", List.class, List.class);
+
+			Object category = annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Mind", "Diff" });
+			List<Object> nanoseconds = Arrays.asList(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"));
+			List<Object> bytes = Arrays.asList(annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"));
+			List<Object> none = new ArrayList<Object>();
+			Class<?> nameClass = Class.forName("jdk.jfr.Name");
+			Class<?> labelClass = Class.forName("jdk.jfr.Label");
+
+			phaseFactory = create.invoke(null,
+					Arrays.asList(annotation.newInstance(nameClass, "org.ow2.mind.diff.Phase"), annotation.newInstance(labelClass, "Diff Phase"), category),
+					Arrays.asList(field.newInstance(String.class, "phase", none),
+							field.newInstance(long.class, "wallTime", nanoseconds),
+							field.newInstance(long.class, "cpuTime", nanoseconds),
+							field.newInstance(long.class, "allocated", bytes)));
+
+			diffFactory = create.invoke(null,
+					Arrays.asList(annotation.newInstance(nameClass, "org.ow2.mind.diff.Diff"), annotation.newInstance(labelClass, "Diff"), category),
+					Arrays.asList(field.newInstance(String.class, "base", none),
+							field.newInstance(String.class, "head", none),
+							field.newInstance(String.class, "status", none),
+							field.newInstance(long.class, "definitionsLoaded", none),
+							field.newInstance(long.class, "componentsMatched", none),
+							field.newInstance(long.class, "bindingsCompared", none),
+							field.newInstance(long.class, "filesWritten", none)));
+
+			newEvent = eventFactoryClass.getMethod("newEvent");
+			begin = eventClass.getMethod("begin");
+			set = eventClass.getMethod("set", int.class, Object.class);
+			commit = eventClass.getMethod("commit");
+		} catch (ClassNotFoundException e) {
+			// no Flight Recorder API
+			phaseFactory = null;
+			diffFactory = null;
+		} catch (Exception e) {
+			Launcher.logger.log(Level.FINE, "Could not define JFR events", e);
+			phaseFactory = null;
+			diffFactory = null;
+		}
+
+		PHASE_FACTORY = phaseFactory;
+		DIFF_FACTORY = diffFactory;
+		NEW_EVENT = newEvent;
+		BEGIN = begin;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	private JfrEvents() {
+	}
+
+	/**
+	 * @return the started event, null when JFR is not available
+	 */
+	static Object beginPhase() {
+		if (PHASE_FACTORY == null)
+			return null;
+		try {
+			Object event = NEW_EVENT.invoke(PHASE_FACTORY);
+			BEGIN.invoke(event);
+			return event;
+		} catch (Exception e) {
+			Launcher.logger.log(Level.FINE, "Could not begin JFR event", e);
+			return null;
+		}
+	}
+
+	static void commitPhase(Object event, String phase, long wallTime, long cpuTime, long allocated) {
+		if (event != null)
+			commit(event, phase, wallTime, cpuTime, allocated);
+	}
+
+	static void commitDiff(String base, String head, String status, long definitionsLoaded, long componentsMatched,
+			long bindingsCompared, long filesWritten) {
+		if (DIFF_FACTORY == null)
+			return;
+		try {
+			commit(NEW_EVENT.invoke(DIFF_FACTORY), base, head, status, definitionsLoaded, componentsMatched, bindingsCompared, filesWritten);
+		} catch (Exception e) {
+			Launcher.logger.log(Level.FINE, "Could not create JFR event", e);
+		}
+	}
+
+	/**
+	 * @param values the fields values, in the order of their definition
+	 */
+	private static void commit(Object event, Object... values) {
+		try {
+			for (int i = 0; i < values.length; i++)
+				SET.invoke(event, i, values[i]);
+			COMMIT.invoke(event);
+		} catch (Exception e) {
+			Launcher.logger.log(Level.FINE, "Could not commit JFR event", e);
+		}
+	}
+}
@@ -23,11 +23,23 @@
 
 package org.ow2.mind.diff;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,12 +50,27 @@ import org.objectweb.fractal.adl.NodeFactory;
 import org.objectweb.fractal.adl.error.Error;
 import org.objectweb.fractal.adl.merger.NodeMerger;
 import org.objectweb.fractal.adl.util.FractalADLLogManager;
+import org.ow2.mind.adl.ast.ASTHelper;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.ComponentContainer;
+import org.ow2.mind.adl.implementation.ImplementationLocator;
+import org.ow2.mind.cli.CmdArgument;
+import org.ow2.mind.cli.CmdFlag;
+import org.ow2.mind.cli.CmdOption;
 import org.ow2.mind.cli.CmdOptionBooleanEvaluator;
 import org.ow2.mind.cli.CmdPathOption;
 import org.ow2.mind.cli.CommandLine;
 import org.ow2.mind.cli.CommandLineOptionExtensionHelper;
 import org.ow2.mind.cli.InvalidCommandLineException;
 import org.ow2.mind.diff.dot.DumpDotGenerator;
+import org.ow2.mind.diff.dot.FlatOutputLayout;
+import org.ow2.mind.diff.dot.OutputLayout;
+import org.ow2.mind.diff.dot.TreeOutputLayout;
+import org.ow2.mind.diff.git.GitRepository;
+import org.ow2.mind.diff.git.GitSourceClassLoader;
+import org.ow2.mind.diff.json.NdjsonDiffWriter;
+import org.ow2.mind.idl.IDLLocator;
+import org.ow2.mind.io.BasicOutputFileLocator;
 import org.ow2.mind.plugin.PluginManager;
 
 import com.google.inject.Injector;
@@ -67,15 +94,176 @@ public class Launcher  extends org.ow2.mind.Launcher {
 			"the search path of ADL,IDL and implementation files for HEAD library",
 			"<path list>");
 
+	protected final CmdArgument	gitRepoOpt 				= new CmdArgument(
+			ID_PREFIX + "GitRepo",
+			null,
+			"git-repo",
+			"read BASE and HEAD from the given local git repository, at --base-rev and --head-rev revisions, without checkout",
+			"<dir>");
+
+	protected final CmdArgument	baseRevOpt 				= new CmdArgument(
+			ID_PREFIX + "BaseRev",
+			null,
+			"base-rev",
+			"the revision of the BASE library in the --git-repo repository",
+			"<revision>");
+
+	protected final CmdArgument	headRevOpt 				= new CmdArgument(
+			ID_PREFIX + "HeadRev",
+			null,
+			"head-rev",
+			"the revision of the HEAD library in the --git-repo repository",
+			"<revision>");
+
+	protected final CmdPathOption	gitSrcPathOpt 			= new CmdPathOption(
+			ID_PREFIX + "GitSrcPath",
+			null,
+			"git-src-path",
+			"the search path of ADL,IDL and implementation files in the --git-repo repository, relative to its root (default is the root)",
+			"<path list>");
+
+	protected final CmdArgument	batchOpt 				= new CmdArgument(
+			ID_PREFIX + "Batch",
+			null,
+			"batch",
+			"compare all the definition pairs listed in the given file, one pair per line (\"baseDefinition [headDefinition [directory]]\"), each one in its own output sub-directory",
+			"<file>");
+
+	protected final CmdArgument	serverOpt 				= new CmdArgument(
+			ID_PREFIX + "Server",
+			null,
+			"server",
+			"keep running as a diff server listening on the given loopback port, instead of comparing the definitions of the command line",
+			"<port>");
+
+	protected final CmdArgument	focusOpt 				= new CmdArgument(
+			ID_PREFIX + "Focus",
+			null,
+			"focus",
+			"only compare and render the sub-tree of the given instance (e.g. TopLevel.comm.stack), "
+					+ "only the definitions along its path being resolved above it",
+			"<instance path>");
+
+	protected final CmdArgument	focusDepthOpt 			= new CmdArgument(
+			ID_PREFIX + "FocusDepth",
+			null,
+			"focus-depth",
+			"the number of levels of the instance tree compared and rendered, the compared (or focused) instance being the first one "
+					+ "(default is unlimited)",
+			"<number>");
+
+	protected final CmdArgument	diffJobsOpt 			= new CmdArgument(
+			ID_PREFIX + "DiffJobs",
+			null,
+			"diff-jobs",
+			"the number of threads comparing sibling sub-components in parallel (default is 1: sequential comparison)",
+			"<number>");
+
+	protected final CmdArgument	diffThresholdOpt 		= new CmdArgument(
+			ID_PREFIX + "DiffThreshold",
+			null,
+			"diff-threshold",
+			"the minimal number of sub-components of a composite for their comparison to be parallelized (default is "
+					+ ArchitecturesComparator.DEFAULT_SEQUENTIAL_THRESHOLD + ")",
+			"<number>");
+
+	protected final CmdArgument	dotJobsOpt 				= new CmdArgument(
+			ID_PREFIX + "DotJobs",
+			null,
+			"dot-jobs",
+			"the number of threads writing the .gv files in parallel (default is 1: sequential generation)",
+			"<number>");
+
+	protected final CmdFlag		dedupDotOpt				= new CmdFlag(
+			ID_PREFIX + "DedupDot",
+			null,
+			"dedup-dot",
+			"write a single .gv file per distinct definition, named after its content, and shared by all its instances");
+
+	protected final CmdFlag		changedOnlyOpt			= new CmdFlag(
+			ID_PREFIX + "ChangedOnly",
+			null,
+			"changed-only",
+			"only write the .gv files of the instances containing a change (and of the top-level): "
+					+ "identical sub-components are drawn in their parent graph, without any file");
+
+	protected final CmdFlag		svgOpt					= new CmdFlag(
+			ID_PREFIX + "Svg",
+			null,
+			"svg",
+			"render the graphs as .svg files, instead of the .gv files to be processed by graphviz");
+
+	protected final CmdFlag		bundleOpt				= new CmdFlag(
+			ID_PREFIX + "Bundle",
+			null,
+			"bundle",
+			"write all the graph files in a single zip archive, " + BUNDLE_FILE_NAME + " (in the output directory), instead of loose files");
+
+	protected final CmdArgument	layoutOpt				= new CmdArgument(
+			ID_PREFIX + "Layout",
+			null,
+			"layout",
+			"the location of the graph files: " + FLAT_LAYOUT + " (default, all in the output directory, named after the instance path) or "
+					+ TREE_LAYOUT + " (directories mirroring the instance tree)",
+			"<" + FLAT_LAYOUT + "|" + TREE_LAYOUT + ">");
+
+	protected final CmdFlag		diffCacheOpt			= new CmdFlag(
+			ID_PREFIX + "DiffCache",
+			null,
+			"diff-cache",
+			"reuse the outputs of the previous runs for the sub-trees whose inputs did not change (cache stored in the output directory)");
+
+	protected final CmdArgument	diffCacheSizeOpt		= new CmdArgument(
+			ID_PREFIX + "DiffCacheSize",
+			null,
+			"diff-cache-size",
+			"the maximal number of entries of the diff cache, least recently used ones being evicted (default is "
+					+ DiffCache.DEFAULT_MAX_ENTRIES + ")",
+			"<number>");
+
+	protected final CmdFlag		ndjsonOpt				= new CmdFlag(
+			ID_PREFIX + "Ndjson",
+			null,
+			"ndjson",
+			"write the diff as newline-delimited JSON records in " + NDJSON_FILE_NAME + " (in the output directory), instead of the .gv files");
+
+	protected final CmdFlag		summaryOpt				= new CmdFlag(
+			ID_PREFIX + "Summary",
+			null,
+			"summary",
+			"only count the added, removed and changed elements per level, without writing any file; "
+					+ "the exit code is " + EXIT_IDENTICAL + " when identical, " + EXIT_DIFFERENT + " when different, " + EXIT_ERROR + " on error");
+
+	protected final CmdFlag		failFastOpt				= new CmdFlag(
+			ID_PREFIX + "FailFast",
+			null,
+			"fail-fast",
+			"with --summary, stop at the first difference found");
+
+	protected final CmdFlag		statsOpt				= new CmdFlag(
+			ID_PREFIX + "Stats",
+			null,
+			"stats",
+			"write the wall time, CPU time and allocated bytes of each phase, and the numbers of loaded definitions, "
+					+ "matched components, compared bindings and written files, in " + STATS_FILE_NAME + " (in the output directory)");
+
 	public static Logger			logger					= FractalADLLogManager.getLogger("visual-diff");
 
 	// compiler components
-	protected Injector            	baseInjector;
-	protected Injector            	headInjector;
-
 	protected Loader 				loaderItf;
 	protected NodeFactory			nodeFactoryItf;
 	protected NodeMerger 			nodeMergerItf;
+	protected ImplementationLocator	implementationLocatorItf;
+	protected IDLLocator			idlLocatorItf;
+
+	/**
+	 * Context entry holding the class loader used to find source files
+	 * (see Fractal ADL ClassLoaderHelper)
+	 */
+	protected static final String	CLASSLOADER_CONTEXT_KEY	= "classloader";
+
+	// source provider when BASE and HEAD are read from git, null otherwise
+	protected GitRepository			gitRepository;
 
 	//-- diff-specific informations
 
@@ -86,11 +274,86 @@ public class Launcher  extends org.ow2.mind.Launcher {
 	Map<Object, Object> baseContext = null;
 	Map<Object, Object> headContext = null;
 
+	int diffJobs					= 1;
+	int diffThreshold				= ArchitecturesComparator.DEFAULT_SEQUENTIAL_THRESHOLD;
+	int dotJobs						= 1;
+	boolean dedupDot				= false;
+	// no .gv file for the identical sub-trees
+	boolean changedOnly				= false;
+	// .svg files rendered in-process instead of .gv files
+	boolean svg						= false;
+	// single archive instead of loose graph files
+	boolean bundle					= false;
+	// location of the graph files
+	OutputLayout outputLayout		= new FlatOutputLayout();
+	// JSON records instead of .gv files
+	boolean ndjson					= false;
+	// differences counts only, no file
+	boolean summaryOnly				= false;
+	boolean failFast				= false;
+	// statistics report in the output directory
+	boolean writeStats				= false;
+	// statistics of the current diff
+	DiffStatistics statistics		= new DiffStatistics();
+	// names of the sub-components from the top-level to the focused instance, null to compare the whole architectures
+	String[] focusPath				= null;
+	// number of compared levels, 0 for unlimited
+	int focusDepth					= 0;
+	// status of the diffs of the command line, null until compared
+	String diffStatus				= null;
+
+	boolean useDiffCache			= false;
+	int diffCacheSize				= DiffCache.DEFAULT_MAX_ENTRIES;
+	// the diff cache is only valid for the same command line, parallelism apart
+	String diffCacheSalt			= null;
+
+	// batch manifest, null when comparing the definitions of the command line
+	File batchManifest				= null;
+
+	// diff server port, 0 when comparing the definitions of the command line
+	int serverPort					= 0;
+	// initial state of the contexts, to start again from when sources change
+	Map<Object, Object> baseContextTemplate = null;
+	Map<Object, Object> headContextTemplate = null;
+	// source directories watched by the diff server, per context
+	List<File> watchedBaseSourceDirs	= new ArrayList<File>();
+	List<File> watchedHeadSourceDirs	= new ArrayList<File>();
+
+	/** Diff status: no difference between BASE and HEAD */
+	public static final String STATUS_IDENTICAL		= "identical";
+	/** Diff status: BASE and HEAD are different */
+	public static final String STATUS_DIFFERENT		= "different";
+	/** Diff status: BASE and HEAD could not be compared */
+	public static final String STATUS_ERROR			= "error";
+
+	/** Exit code in summary mode: no difference between BASE and HEAD */
+	public static final int EXIT_IDENTICAL			= 0;
+	/** Exit code in summary mode: BASE and HEAD could not be compared */
+	public static final int EXIT_ERROR				= 1;
+	/** Exit code in summary mode: BASE and HEAD are different */
+	public static final int EXIT_DIFFERENT			= 2;
+
+	/** Newline-delimited JSON export, in the output directory */
+	public static final String NDJSON_FILE_NAME		= "mind-diff.ndjson";
+
+	/** Archive of the graph files, in the output directory */
+	public static final String BUNDLE_FILE_NAME		= "mind-diff-graphs.zip";
+
+	/** Values of the --layout option */
+	public static final String FLAT_LAYOUT			= "flat";
+	public static final String TREE_LAYOUT			= "tree";
+
+	/** Statistics report, in the output directory */
+	public static final String STATS_FILE_NAME		= "mind-diff-stats.json";
+
+	/** Batch summary, in the output directory */
+	public static final String BATCH_SUMMARY_FILE_NAME	= "mind-diff-summary.txt";
+
 	//-- compiler configuration
 
 	@Override
 	protected void addOptions(final PluginManager pluginManagerItf) {
-		options.addOptions(baseSrcOpt, headSrcOpt, helpOpt, versionOpt, extensionPointsListOpt);
+		options.addOptions(baseSrcOpt, headSrcOpt, gitRepoOpt, baseRevOpt, headRevOpt, gitSrcPathOpt, batchOpt, serverOpt, focusOpt, focusDepthOpt, diffJobsOpt, diffThresholdOpt, dotJobsOpt, dedupDotOpt, changedOnlyOpt, svgOpt, bundleOpt, layoutOpt, ndjsonOpt, summaryOpt, failFastOpt, statsOpt, diffCacheOpt, diffCacheSizeOpt, helpOpt, versionOpt, extensionPointsListOpt);
 
 		options.addOptions(CommandLineOptionExtensionHelper
 				.getCommandOptions(pluginManagerItf));
@@ -130,6 +393,48 @@ public class Launcher  extends org.ow2.mind.Launcher {
 			System.exit(0);
 		}
 
+		// Comparison parallelism
+		diffJobs = getPositiveIntValue(diffJobsOpt, cmdLine, diffJobs);
+		diffThreshold = getPositiveIntValue(diffThresholdOpt, cmdLine, diffThreshold);
+		dotJobs = getPositiveIntValue(dotJobsOpt, cmdLine, dotJobs);
+		dedupDot = dedupDotOpt.isPresent(cmdLine);
+		if (dedupDot && dotJobs > 1)
+			throw new InvalidCommandLineException("--dedup-dot can not be used with --dot-jobs, the deduplicated generation being sequential.", 1);
+		changedOnly = changedOnlyOpt.isPresent(cmdLine);
+		svg = svgOpt.isPresent(cmdLine);
+		bundle = bundleOpt.isPresent(cmdLine);
+		if (layoutOpt.isPresent(cmdLine))
+			outputLayout = parseOutputLayout(layoutOpt.getValue(cmdLine));
+		ndjson = ndjsonOpt.isPresent(cmdLine);
+		summaryOnly = summaryOpt.isPresent(cmdLine);
+		failFast = failFastOpt.isPresent(cmdLine);
+		if (failFast && !summaryOnly)
+			throw new InvalidCommandLineException("--fail-fast can only be used with --summary.", 1);
+		writeStats = statsOpt.isPresent(cmdLine);
+		if (writeStats && summaryOnly)
+			throw new InvalidCommandLineException("--stats can not be used with --summary, which writes no file.", 1);
+
+		// Focused diff
+		if (focusOpt.isPresent(cmdLine))
+			focusPath = parseFocusPath(focusOpt.getValue(cmdLine));
+		focusDepth = getPositiveIntValue(focusDepthOpt, cmdLine, focusDepth);
+
+		// Batch mode
+		if (batchOpt.isPresent(cmdLine))
+			batchManifest = new File(batchOpt.getValue(cmdLine));
+
+		// Server mode
+		serverPort = getPositiveIntValue(serverOpt, cmdLine, serverPort);
+
+		// Persistent diff cache
+		useDiffCache = diffCacheOpt.isPresent(cmdLine);
+		diffCacheSize = getPositiveIntValue(diffCacheSizeOpt, cmdLine, diffCacheSize);
+		diffCacheSalt = getDiffCacheSalt(args);
+		if (useDiffCache && bundle)
+			throw new InvalidCommandLineException("--diff-cache can not be used with --bundle, the archive being rewritten by each run.", 1);
+		if (useDiffCache && focusDepth > 0)
+			throw new InvalidCommandLineException("--diff-cache can not be used with --focus-depth, the cache keys covering whole sub-trees.", 1);
+
 		// Handle separate source-paths for the two component libraries
 		if (baseSrcOpt.isPresent(cmdLine) && headSrcOpt.isPresent(cmdLine)) {
 
@@ -143,22 +448,12 @@ public class Launcher  extends org.ow2.mind.Launcher {
 			// Populate the 2 fake command lines with SrcPathOption with baseSrcOpt and headSrcOpt values
 
 			// BASE
-			CmdPathOption fakeSrcOptForBase = new CmdPathOption(
-					org.ow2.mind.Launcher.ID_PREFIX + "SrcPath",
-					"S",
-					"src-path",
-					"the search path of ADL,IDL and implementation files (list of path separated by ':' on Linux or ';' on Windows)",
-					"&lt;path list&gt;");
+			CmdPathOption fakeSrcOptForBase = newSrcPathOption();
 			fakeSrcOptForBase.setValue(baseCmdLine, baseSrcOpt.getValue(cmdLine));
 
 
 			// HEAD
-			CmdPathOption fakeSrcOptForHead = new CmdPathOption(
-					org.ow2.mind.Launcher.ID_PREFIX + "SrcPath",
-					"S",
-					"src-path",
-					"the search path of ADL,IDL and implementation files (list of path separated by ':' on Linux or ';' on Windows)",
-					"&lt;path list&gt;");
+			CmdPathOption fakeSrcOptForHead = newSrcPathOption();
 			fakeSrcOptForHead.setValue(headCmdLine, headSrcOpt.getValue(cmdLine));
 
 			// to each context its own src-path
@@ -185,6 +480,29 @@ public class Launcher  extends org.ow2.mind.Launcher {
 			headContext = new HashMap<Object, Object>(compilerContext);
 		}
 
+		// Serve BASE and HEAD sources from a git repository
+		if (gitRepoOpt.isPresent(cmdLine))
+			initGitSourceProviders(cmdLine);
+
+		// A diff server has to start again from the initial contexts when sources change
+		if (serverPort > 0) {
+			baseContextTemplate = new HashMap<Object, Object>(baseContext);
+			headContextTemplate = new HashMap<Object, Object>(headContext);
+			if (gitRepository != null) {
+				// revisions are immutable, and resolved once
+				logger.info("Sources are read from git revisions: they are not watched, restart the server to diff other revisions.");
+			} else if (baseSrcOpt.isPresent(cmdLine) && headSrcOpt.isPresent(cmdLine)) {
+				addWatchedSourceDirs(watchedBaseSourceDirs, baseSrcOpt.getPathValue(cmdLine));
+				addWatchedSourceDirs(watchedHeadSourceDirs, headSrcOpt.getPathValue(cmdLine));
+			} else {
+				CmdPathOption srcOpt = newSrcPathOption();
+				if (srcOpt.isPresent(cmdLine)) {
+					addWatchedSourceDirs(watchedBaseSourceDirs, srcOpt.getPathValue(cmdLine));
+					addWatchedSourceDirs(watchedHeadSourceDirs, srcOpt.getPathValue(cmdLine));
+				}
+			}
+		}
+
 		// get list of ADL
 		adlToExecName = parserADLList(cmdLine.getArguments(), cmdLine);
 
@@ -194,6 +512,120 @@ public class Launcher  extends org.ow2.mind.Launcher {
 		initCompiler();
 	}
 
+	/**
+	 * Replace the source class loader of each context by one reading its revision from the git repository.
+	 * Blobs common to both revisions are read once.
+	 * 
+	 * @param cmdLine the parsed command line
+	 * @throws InvalidCommandLineException 
+	 */
+	protected void initGitSourceProviders(final CommandLine cmdLine) throws InvalidCommandLineException {
+		if (baseSrcOpt.isPresent(cmdLine) || headSrcOpt.isPresent(cmdLine))
+			throw new InvalidCommandLineException("--git-repo can not be used with --base-src-path and --head-src-path.", 1);
+		if (!baseRevOpt.isPresent(cmdLine) || !headRevOpt.isPresent(cmdLine))
+			throw new InvalidCommandLineException("--git-repo requires both --base-rev and --head-rev.", 1);
+
+		List<String> srcDirs = gitSrcPathOpt.isPresent(cmdLine) ? gitSrcPathOpt.getPathValue(cmdLine) : Collections.singletonList("");
+
+		gitRepository = new GitRepository(new File(gitRepoOpt.getValue(cmdLine)));
+		try {
+			GitSourceClassLoader baseClassLoader = new GitSourceClassLoader(gitRepository, baseRevOpt.getValue(cmdLine), srcDirs, getSourceClassLoader(baseContext));
+			GitSourceClassLoader headClassLoader = new GitSourceClassLoader(gitRepository, headRevOpt.getValue(cmdLine), srcDirs, getSourceClassLoader(headContext));
+			baseContext.put(CLASSLOADER_CONTEXT_KEY, baseClassLoader);
+			headContext.put(CLASSLOADER_CONTEXT_KEY, headClassLoader);
+
+			logger.info("BASE revision: " + baseClassLoader.getRevision() + " - HEAD revision: " + headClassLoader.getRevision());
+		} catch (IOException e) {
+			throw new InvalidCommandLineException("could not read revisions from git repository "
+					+ gitRepository.getRepositoryDir() + ": " + e.getMessage(), 1);
+		}
+	}
+
+	/**
+	 * @return the class loader set up by the options handlers, for the compiler libraries
+	 */
+	private static ClassLoader getSourceClassLoader(Map<Object, Object> context) {
+		ClassLoader classLoader = (ClassLoader) context.get(CLASSLOADER_CONTEXT_KEY);
+		return classLoader != null ? classLoader : Launcher.class.getClassLoader();
+	}
+
+	/**
+	 * @param args the command line arguments
+	 * @return the arguments the outputs depend on: all but the parallelism and cache ones
+	 */
+	protected String getDiffCacheSalt(final String... args) {
+		final CmdOption[] ignoredOpts = { diffJobsOpt, diffThresholdOpt, dotJobsOpt, diffCacheOpt, diffCacheSizeOpt, serverOpt, statsOpt };
+
+		StringBuilder salt = new StringBuilder();
+		for (final String arg : args) {
+			boolean ignored = false;
+			for (final CmdOption opt : ignoredOpts)
+				if (arg.equals("--" + opt.getLongName()) || arg.startsWith("--" + opt.getLongName() + "=")) {
+					ignored = true;
+					break;
+				}
+			if (!ignored)
+				salt.append(arg).append('\n');
+		}
+		return salt.toString();
+	}
+
+	/**
+	 * @param value the --focus value: sub-component names separated by '.', optionally starting with the top-level name
+	 * @return the sub-component names, null for the top-level itself
+	 * @throws InvalidCommandLineException 
+	 */
+	protected static String[] parseFocusPath(String value) throws InvalidCommandLineException {
+		String path = value;
+		if (path.equals(DumpDotGenerator.TOP_LEVEL_NAME))
+			return null;
+		if (path.startsWith(DumpDotGenerator.TOP_LEVEL_NAME + "."))
+			path = path.substring(DumpDotGenerator.TOP_LEVEL_NAME.length() + 1);
+
+		String[] names = path.split("\\.", -1);
+		for (String name : names)
+			if (name.length() == 0)
+				throw new InvalidCommandLineException("invalid instance path '" + value + "' for option --focus.", 1);
+		return names;
+	}
+
+	/**
+	 * @param value the --layout value
+	 * @return the layout of the graph files
+	 * @throws InvalidCommandLineException 
+	 */
+	protected static OutputLayout parseOutputLayout(String value) throws InvalidCommandLineException {
+		if (value.equals(FLAT_LAYOUT))
+			return new FlatOutputLayout();
+		if (value.equals(TREE_LAYOUT))
+			return new TreeOutputLayout();
+		throw new InvalidCommandLineException("invalid value '" + value + "' for option --layout, "
+				+ FLAT_LAYOUT + " or " + TREE_LAYOUT + " is expected.", 1);
+	}
+
+	/**
+	 * @param opt the option
+	 * @param cmdLine the parsed command line
+	 * @param defaultValue the value to be used when the option is absent
+	 * @return the option value, checked to be a positive integer
+	 * @throws InvalidCommandLineException 
+	 */
+	protected static int getPositiveIntValue(CmdArgument opt, CommandLine cmdLine, int defaultValue) throws InvalidCommandLineException {
+		if (!opt.isPresent(cmdLine))
+			return defaultValue;
+
+		String value = opt.getValue(cmdLine);
+		try {
+			int intValue = Integer.parseInt(value);
+			if (intValue > 0)
+				return intValue;
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		throw new InvalidCommandLineException("invalid value '" + value + "' for option --" + opt.getLongName()
+				+ ", a positive number is expected.", 1);
+	}
+
 	/**
 	 * Here we use the standard compiler initialization + A number of internals usually coming later.
 	 */
@@ -206,6 +638,8 @@ public class Launcher  extends org.ow2.mind.Launcher {
 		loaderItf = injector.getInstance(Loader.class);
 		nodeFactoryItf = injector.getInstance(NodeFactory.class);
 		nodeMergerItf = injector.getInstance(NodeMerger.class);
+		implementationLocatorItf = injector.getInstance(ImplementationLocator.class);
+		idlLocatorItf = injector.getInstance(IDLLocator.class);
 	}
 
 	/**
@@ -215,42 +649,216 @@ public class Launcher  extends org.ow2.mind.Launcher {
 	public List<Object> compile(final List<Error> errors,
 			final List<Error> warnings) throws InvalidCommandLineException {
 
+		final List<Object> result = new ArrayList<Object>();
+
+		if (serverPort > 0) {
+			if (adlToExecName.size() != 0 || batchManifest != null)
+				throw new InvalidCommandLineException("definition names and --batch can not be specified with --server.",
+						1);
+			runServer();
+		} else if (batchManifest != null) {
+			if (adlToExecName.size() != 0)
+				throw new InvalidCommandLineException("definition names can not be specified with --batch.",
+						1);
+			compileBatch();
+		} else {
+			if (adlToExecName.size() == 0) {
+				throw new InvalidCommandLineException("no definition name is specified.",
+						1);
+			} else if (adlToExecName.size() == 1) {
+				// Same name for both sources
+				baseAdlName = adlToExecName.keySet().toArray(new String[1])[0];
+				headAdlName = baseAdlName;
+			} else if (adlToExecName.size() == 2) {
+				String[] defsNames = adlToExecName.keySet().toArray(new String[2]);
+				baseAdlName = defsNames[0];
+				headAdlName = defsNames[1];
+			} else
+				throw new InvalidCommandLineException("too many arguments were specified.",
+						1);
+
+			logger.info("Launching graphical diff files generation...");
+			logger.info("BASE: " + baseAdlName + " - HEAD: " + headAdlName);
+
+			ArchitecturesComparator archComparator = newArchitecturesComparator();
+			try {
+				diffStatus = diffArchitectures(archComparator, getOutputDir());
+			} finally {
+				archComparator.shutdown();
+			}
+		}
+
+		// sources are not needed anymore
+		if (gitRepository != null)
+			gitRepository.close();
+
+		if (errors != null) errors.addAll(errorManager.getErrors());
+		if (warnings != null) warnings.addAll(errorManager.getWarnings());
+
+		return result;
+	}
+
+	/**
+	 * @return the standard --src-path option of the compiler (see org.ow2.mind.Launcher),
+	 * to read or set its value in a command line
+	 */
+	protected static CmdPathOption newSrcPathOption() {
+		return new CmdPathOption(
+				org.ow2.mind.Launcher.ID_PREFIX + "SrcPath",
+				"S",
+				"src-path",
+				"the search path of ADL,IDL and implementation files (list of path separated by ':' on Linux or ';' on Windows)",
+				"&lt;path list&gt;");
+	}
+
+	private static void addWatchedSourceDirs(List<File> watchedDirs, List<String> paths) {
+		if (paths != null)
+			for (String path : paths)
+				watchedDirs.add(new File(path));
+	}
+
+	/**
+	 * Start again from the BASE context as it was after the command line handling,
+	 * without any loaded definition.
+	 */
+	protected void resetBaseContext() {
+		baseContext = new HashMap<Object, Object>(baseContextTemplate);
+	}
+
+	/**
+	 * Start again from the HEAD context as it was after the command line handling,
+	 * without any loaded definition.
+	 */
+	protected void resetHeadContext() {
+		headContext = new HashMap<Object, Object>(headContextTemplate);
+	}
+
+	/**
+	 * Forget the errors of the previous diffs, so that they do not fail the next ones.
+	 */
+	protected void clearErrors() {
+		errorManager.clear();
+	}
+
+	/**
+	 * Serve diff requests until stopped (see DiffServer).
+	 * 
+	 * @throws InvalidCommandLineException when the server can not be started
+	 */
+	protected void runServer() throws InvalidCommandLineException {
+		try {
+			new DiffServer(this, serverPort, new SourceWatcher(watchedBaseSourceDirs),
+					new SourceWatcher(watchedHeadSourceDirs)).run();
+		} catch (IOException e) {
+			throw new InvalidCommandLineException("could not start diff server on port " + serverPort + ": " + e.getMessage(), 1);
+		}
+	}
+
+	protected ArchitecturesComparator newArchitecturesComparator() {
+		ArchitecturesComparator archComparator = new ArchitecturesComparator(loaderItf, nodeFactoryItf, nodeMergerItf, implementationLocatorItf, idlLocatorItf);
+		archComparator.setParallelism(diffJobs, diffThreshold);
+		archComparator.setMaxDepth(getMaxDepth());
+		return archComparator;
+	}
+
+	/**
+	 * @return the deepest level of compared instances, the compared instance being at level 0
+	 */
+	protected int getMaxDepth() {
+		return focusDepth > 0 ? focusDepth - 1 : ArchitecturesComparator.UNLIMITED_DEPTH;
+	}
+
+	/**
+	 * @return the name of the compared instance, prefix of the instance paths in the outputs
+	 */
+	protected String getTopLevelName() {
+		StringBuilder sb = new StringBuilder(DumpDotGenerator.TOP_LEVEL_NAME);
+		if (focusPath != null)
+			for (String name : focusPath)
+				sb.append('.').append(name);
+		return sb.toString();
+	}
+
+	/**
+	 * @return the output directory of the contexts
+	 */
+	protected File getOutputDir() {
+		return (File) baseContext.get(BasicOutputFileLocator.OUTPUT_DIR_CONTEXT_KEY);
+	}
+
+	/**
+	 * Load and compare baseAdlName and headAdlName architectures, and generate the .gv files
+	 * (or the JSON export).
+	 * 
+	 * @param archComparator the comparator, which can be shared by successive diffs
+	 * @param outputDir the directory of the .gv files
+	 * @return STATUS_IDENTICAL, STATUS_DIFFERENT, or STATUS_ERROR when the architectures could not be compared
+	 */
+	protected String diffArchitectures(ArchitecturesComparator archComparator, File outputDir) {
+
 		Definition resultDefinitionTree = null;
 
 		Definition baseArchDef = null;
 		Definition headArchDef = null;
 
-		if (adlToExecName.size() == 0) {
-			throw new InvalidCommandLineException("no definition name is specified.",
-					1);
-		} else if (adlToExecName.size() == 1) {
-			// Same name for both sources
-			baseAdlName = adlToExecName.keySet().toArray(new String[1])[0];
-			headAdlName = baseAdlName;
-		} else if (adlToExecName.size() == 2) {
-			String[] defsNames = adlToExecName.keySet().toArray(new String[2]);
-			baseAdlName = defsNames[0];
-			headAdlName = defsNames[1];
-		} else
-			throw new InvalidCommandLineException("too many arguments were specified.",
-					1);
+		String status = STATUS_ERROR;
 
-		final List<Object> result = new ArrayList<Object>();
+		statistics = new DiffStatistics();
+		archComparator.setStatistics(statistics);
 
-		logger.info("Launching graphical diff files generation...");
-		logger.info("BASE: " + baseAdlName + " - HEAD: " + headAdlName);
+		// outputs of the previous runs (.gv files only: the export is a single stream)
+		DiffCache diffCache = null;
+		if (useDiffCache && !ndjson && !summaryOnly) {
+			diffCache = new DiffCache(outputDir, diffCacheSalt, diffCacheSize);
+			diffCache.load();
+		}
 
 		// load both definitions
 		try {
-			logger.info("Loading BASE architecture...");
-			baseArchDef = loaderItf.load(baseAdlName, baseContext);
-			logger.info("Loading HEAD architecture...");
-			headArchDef = loaderItf.load(headAdlName, headContext);
+			Definition[] archDefs = loadArchitectures();
+			baseArchDef = archDefs[0];
+			headArchDef = archDefs[1];
+
+			// Only the sub-tree of the focused instance
+			if (focusPath != null) {
+				baseArchDef = resolveFocusedDefinition(baseArchDef, baseContext, "BASE");
+				headArchDef = resolveFocusedDefinition(headArchDef, headContext, "HEAD");
+				if (baseArchDef == null || headArchDef == null)
+					return STATUS_ERROR;
+			}
+
+			// Only count the differences, without building the diff tree
+			if (summaryOnly) {
+				logger.info("Counting differences...");
+				DiffSummary summary;
+				DiffStatistics.Phase comparePhase = statistics.startPhase(DiffStatistics.COMPARE);
+				try {
+					summary = archComparator.summarizeDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext, failFast);
+					// the status tells what the printed counts tell
+					status = summary.hasDifferences() ? STATUS_DIFFERENT : STATUS_IDENTICAL;
+				} finally {
+					comparePhase.stop();
+				}
+				printSummary(summary, status);
+				reportStatistics(status, null);
+				return status;
+			}
 
 			// Do the job
 			logger.info("Starting component definition trees analysis...");
-			ArchitecturesComparator archComparator = new ArchitecturesComparator(loaderItf, nodeFactoryItf, nodeMergerItf);
-			resultDefinitionTree = archComparator.compareDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext);
+			archComparator.setDiffCache(diffCache);
+			DiffStatistics.Phase comparePhase = statistics.startPhase(DiffStatistics.COMPARE);
+			try {
+				resultDefinitionTree = archComparator.compareDefinitionTrees(baseArchDef, headArchDef, baseContext, headContext);
+
+				// as compared: down to the depth limit, a renamed top-level being a difference (as in the summary)
+				if (DiffHelper.isIdentical(resultDefinitionTree) && baseArchDef.getName().equals(headArchDef.getName()))
+					status = STATUS_IDENTICAL;
+				else
+					status = STATUS_DIFFERENT;
+			} finally {
+				comparePhase.stop();
+			}
 			logger.info("Finished.");
 		} catch (ADLException e) {
 			logger.severe("An error occured: ");
@@ -259,20 +867,338 @@ public class Launcher  extends org.ow2.mind.Launcher {
 		}		
 		//
 
-		DumpDotGenerator dotGenerator = injector.getInstance(DumpDotGenerator.class);
+		DiffStatistics.Phase outputPhase = resultDefinitionTree != null ? statistics.startPhase(DiffStatistics.OUTPUT) : null;
+		if (resultDefinitionTree != null && ndjson) {
+			if (!exportNdjson(resultDefinitionTree, status, outputDir))
+				status = STATUS_ERROR;
+		} else if (resultDefinitionTree != null) {
+			DumpDotGenerator dotGenerator = injector.getInstance(DumpDotGenerator.class);
+			dotGenerator.setParallelism(dotJobs);
+			dotGenerator.setDeduplicate(dedupDot);
+			dotGenerator.setChangedOnly(changedOnly);
+			dotGenerator.setSvg(svg);
+			dotGenerator.setBundleFile(bundle ? new File(outputDir, BUNDLE_FILE_NAME) : null);
+			dotGenerator.setOutputLayout(outputLayout);
+			dotGenerator.setDiffCache(diffCache);
+			dotGenerator.setStatistics(statistics);
+			dotGenerator.setTopLevelName(getTopLevelName());
+			dotGenerator.setMaxDepth(getMaxDepth());
+			try {
+				dotGenerator.generateDot(resultDefinitionTree, baseContext, headContext, outputDir);
+				if (dotGenerator.getFailures().isEmpty())
+					logger.info("Successful.");
+				else
+					logger.severe("Error: " + dotGenerator.getFailures().size() + " .gv file(s) could not be generated !");
+				if (diffCache != null)
+					diffCache.save();
+			} catch (ADLException e) {
+				logger.severe("Error: could not generate .gv files !");
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not write the diff cache: " + e.getMessage());
+			}
+		}
+		if (outputPhase != null)
+			outputPhase.stop();
+
+		reportStatistics(status, outputDir);
+
+		return status;
+	}
+
+	/**
+	 * Log the statistics of the diff, record them as a JFR event, and with --stats
+	 * write them in the output directory.
+	 * 
+	 * @param outputDir the output directory, null when no file is to be written
+	 */
+	protected void reportStatistics(String status, File outputDir) {
+		logger.info("Statistics: " + statistics);
+		statistics.commitDiffEvent(baseAdlName, headAdlName, status);
+
+		if (!writeStats || outputDir == null)
+			return;
+
+		File statsFile = new File(outputDir, STATS_FILE_NAME);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(statsFile), "UTF-8");
+			try {
+				statistics.writeJson(writer, baseAdlName, headAdlName, status);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			logger.severe("Could not write statistics " + statsFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Walk down the focus path, resolving the definitions along it only.
+	 * 
+	 * @param archDef the top-level definition
+	 * @param context the context of the architecture
+	 * @param architecture "BASE" or "HEAD", for error reporting
+	 * @return the definition of the focused instance, null when there is no such instance
+	 * @throws ADLException 
+	 */
+	protected Definition resolveFocusedDefinition(Definition archDef, Map<Object, Object> context, String architecture) throws ADLException {
+		Definition definition = archDef;
+		StringBuilder path = new StringBuilder(DumpDotGenerator.TOP_LEVEL_NAME);
+		for (String name : focusPath) {
+			path.append('.').append(name);
+
+			Component subComponent = null;
+			if (ASTHelper.isComposite(definition))
+				for (Component component : ((ComponentContainer) definition).getComponents())
+					if (component.getName().equals(name)) {
+						subComponent = component;
+						break;
+					}
+			if (subComponent == null) {
+				logger.severe("Focused instance " + path + " does not exist in " + architecture + " architecture " + archDef.getName() + ".");
+				return null;
+			}
+
+			definition = ASTHelper.getResolvedComponentDefinition(subComponent, loaderItf, context);
+			statistics.countDefinition(definition);
+		}
+		return definition;
+	}
+
+	/**
+	 * Print the differences counts on the standard output, for scripts.
+	 */
+	protected void printSummary(DiffSummary summary, String status) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(status).append('\t').append(baseAdlName).append('\t').append(headAdlName)
+			.append('\t').append(summary.getDifferencesNb()).append(" difference(s)");
+		if (summary.isComplete())
+			sb.append(" (stopped at the first one)");
+		sb.append('\n');
+		sb.append(summary.toString());
+		System.out.print(sb);
+		System.out.flush();
+	}
+
+	/**
+	 * @param status a diff status, null when nothing was compared
+	 * @return the exit code of the summary mode
+	 */
+	protected static int getExitCode(String status) {
+		if (STATUS_IDENTICAL.equals(status))
+			return EXIT_IDENTICAL;
+		if (STATUS_DIFFERENT.equals(status))
+			return EXIT_DIFFERENT;
+		return EXIT_ERROR;
+	}
+
+	/**
+	 * Write the diff tree as newline-delimited JSON records (see NdjsonDiffWriter).
+	 * 
+	 * @return false when the export could not be written
+	 */
+	protected boolean exportNdjson(Definition resultDefinitionTree, String status, File outputDir) {
+		File ndjsonFile = new File(outputDir, NDJSON_FILE_NAME);
+		NdjsonDiffWriter ndjsonWriter = injector.getInstance(NdjsonDiffWriter.class);
+		ndjsonWriter.setStatistics(statistics);
+		ndjsonWriter.setTopLevelName(getTopLevelName());
+		ndjsonWriter.setMaxDepth(getMaxDepth());
 		try {
-			dotGenerator.generateDot(resultDefinitionTree, baseContext, headContext);
-			logger.info("Successful.");
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ndjsonFile), "UTF-8"), 64 * 1024);
+			try {
+				ndjsonWriter.write(resultDefinitionTree, baseAdlName, headAdlName, status, baseContext, headContext, writer);
+			} finally {
+				writer.close();
+			}
+			statistics.increment(DiffStatistics.FILES_WRITTEN);
+			logger.info("Successful: " + ndjsonFile);
+			return true;
+		} catch (IOException e) {
+			logger.severe("Error: could not write " + ndjsonFile + ": " + e.getMessage());
 		} catch (ADLException e) {
-			logger.severe("Error: could not generate .gv files !");
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.severe("Error: could not write " + ndjsonFile + ": " + e.getMessage());
 		}
+		return false;
+	}
 
-		if (errors != null) errors.addAll(errorManager.getErrors());
-		if (warnings != null) warnings.addAll(errorManager.getWarnings());
+	/**
+	 * Diff all the pairs of the batch manifest, each one in its own output sub-directory.
+	 * Pairs share the same contexts, thus the loaded definitions, and the same comparator,
+	 * thus the results of the pairs of definitions compared several times.
+	 * A summary of all the diffs is written in the output directory.
+	 * 
+	 * @throws InvalidCommandLineException when the manifest can not be read
+	 */
+	protected void compileBatch() throws InvalidCommandLineException {
+		List<String[]> pairs = readBatchManifest(batchManifest);
+		File outputDir = getOutputDir();
 
-		return result;
+		logger.info("Launching graphical diff files generation for " + pairs.size() + " pairs...");
+
+		StringBuilder summary = new StringBuilder("# status\tbase\thead\tdirectory\n");
+		int identicalNb = 0;
+		int differentNb = 0;
+		int errorNb = 0;
+
+		ArchitecturesComparator archComparator = newArchitecturesComparator();
+		try {
+			for (String[] pair : pairs) {
+				baseAdlName = pair[0];
+				headAdlName = pair[1];
+				File pairOutputDir = new File(outputDir, pair[2]);
+
+				logger.info("BASE: " + baseAdlName + " - HEAD: " + headAdlName + " (" + pair[2] + ")");
+
+				String status;
+				if (!pairOutputDir.isDirectory() && !pairOutputDir.mkdirs()) {
+					logger.severe("Could not create output directory " + pairOutputDir);
+					status = STATUS_ERROR;
+				} else
+					status = diffArchitectures(archComparator, pairOutputDir);
+
+				if (STATUS_IDENTICAL.equals(status))
+					identicalNb++;
+				else if (STATUS_DIFFERENT.equals(status))
+					differentNb++;
+				else
+					errorNb++;
+
+				summary.append(status).append('\t').append(baseAdlName).append('\t')
+					.append(headAdlName).append('\t').append(pair[2]).append('\n');
+			}
+		} finally {
+			archComparator.shutdown();
+		}
+
+		if (errorNb > 0)
+			diffStatus = STATUS_ERROR;
+		else if (differentNb > 0)
+			diffStatus = STATUS_DIFFERENT;
+		else
+			diffStatus = STATUS_IDENTICAL;
+
+		File summaryFile = new File(outputDir, BATCH_SUMMARY_FILE_NAME);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(summaryFile), "UTF-8");
+			try {
+				writer.write(summary.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			logger.severe("Could not write batch summary " + summaryFile + ": " + e.getMessage());
+		}
+
+		logger.info("Batch finished: " + identicalNb + " identical, " + differentNb + " different, "
+				+ errorNb + " in error (see " + summaryFile + ").");
+	}
+
+	/**
+	 * The manifest lists one pair per line: "baseDefinition [headDefinition [directory]]",
+	 * fields being separated by white spaces. Empty lines and lines starting with '#' are ignored.
+	 * Without headDefinition, the same definition is compared. The default directory is
+	 * the definition name, or "baseDefinition_vs_headDefinition" for different names.
+	 * 
+	 * @return the (base, head, directory) triplets
+	 * @throws InvalidCommandLineException when the manifest can not be read or is invalid
+	 */
+	protected static List<String[]> readBatchManifest(File manifest) throws InvalidCommandLineException {
+		List<String[]> pairs = new ArrayList<String[]>();
+		Set<String> directories = new HashSet<String>();
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+			try {
+				String line;
+				int lineNb = 0;
+				while ((line = reader.readLine()) != null) {
+					lineNb++;
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#"))
+						continue;
+
+					String[] fields = line.split("\\s+");
+					if (fields.length > 3)
+						throw new InvalidCommandLineException(manifest + ":" + lineNb + ": too many fields.", 1);
+
+					String base = fields[0];
+					String head = fields.length > 1 ? fields[1] : base;
+					String directory = fields.length > 2 ? fields[2] : (base.equals(head) ? base : base + "_vs_" + head);
+					if (!directories.add(directory))
+						throw new InvalidCommandLineException(manifest + ":" + lineNb + ": directory '" + directory
+								+ "' is used by several pairs.", 1);
+
+					pairs.add(new String[] { base, head, directory });
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new InvalidCommandLineException("could not read batch manifest " + manifest + ": " + e.getMessage(), 1);
+		}
+
+		if (pairs.isEmpty())
+			throw new InvalidCommandLineException("batch manifest " + manifest + " is empty.", 1);
+
+		return pairs;
+	}
+
+	/**
+	 * Load the BASE and HEAD architectures, one after the other: both loads go through
+	 * the same Loader, NodeFactory and ErrorManager, which are not thread-safe.
+	 * Errors of both loads are reported before failing.
+	 * 
+	 * @return the BASE and HEAD definitions
+	 * @throws ADLException the BASE load error if any, the HEAD one otherwise
+	 */
+	protected Definition[] loadArchitectures() throws ADLException {
+
+		Definition baseArchDef = null;
+		Definition headArchDef = null;
+		ADLException baseError = null;
+		ADLException headError = null;
+
+		logger.info("Loading BASE architecture...");
+		try {
+			baseArchDef = loadArchitecture(baseAdlName, baseContext, DiffStatistics.BASE_LOAD, statistics);
+		} catch (ADLException e) {
+			baseError = e;
+		}
+
+		logger.info("Loading HEAD architecture...");
+		try {
+			headArchDef = loadArchitecture(headAdlName, headContext, DiffStatistics.HEAD_LOAD, statistics);
+		} catch (ADLException e) {
+			headError = e;
+		}
+
+		// report all errors at once
+		if (baseError != null)
+			logger.severe("Could not load BASE architecture " + baseAdlName + ": " + baseError.getMessage());
+		if (headError != null)
+			logger.severe("Could not load HEAD architecture " + headAdlName + ": " + headError.getMessage());
+
+		if (baseError != null)
+			throw baseError;
+		if (headError != null)
+			throw headError;
+
+		return new Definition[] { baseArchDef, headArchDef };
+	}
+
+	/**
+	 * Load an architecture, measured as the given phase.
+	 */
+	private Definition loadArchitecture(String adlName, Map<Object, Object> context, int phase, DiffStatistics loadStatistics) throws ADLException {
+		DiffStatistics.Phase loadPhase = loadStatistics.startPhase(phase);
+		try {
+			Definition archDef = loaderItf.load(adlName, context);
+			loadStatistics.countDefinition(archDef);
+			return archDef;
+		} finally {
+			loadPhase.stop();
+		}
 	}
 
 	@Override
@@ -286,6 +1212,13 @@ public class Launcher  extends org.ow2.mind.Launcher {
 				+ " [OPTIONS] <baseDefinition> <headDefinition>");
 		ps.println("  where <baseDefinition> and <headDefinition> are names of components to"
 				+ " be compared either in a unique --src-path or between --base-src-path and --head-src-path");
+		ps.println("  or between --base-rev and --head-rev revisions of a --git-repo repository");
+		ps.println("3) " + getProgramName()
+				+ " [OPTIONS] --batch=<manifest>");
+		ps.println("  where <manifest> lists the pairs of definitions to be compared, one per line");
+		ps.println("4) " + getProgramName()
+				+ " [OPTIONS] --server=<port>");
+		ps.println("  to serve diff requests on http://localhost:<port>/diff?base=<baseDefinition>&head=<headDefinition>");
 		ps.println("Note: Base/Head versions == Old/New");
 	}
 
@@ -306,5 +1239,8 @@ public class Launcher  extends org.ow2.mind.Launcher {
 		}
 
 		if (!l.errorManager.getErrors().isEmpty()) System.exit(1);
+
+		// scripts only need the result
+		if (l.summaryOnly) System.exit(getExitCode(l.diffStatus));
 	}
 }
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches BASE and HEAD nodes of a same container (sub-components, interfaces,
+ * bindings...) in linear time, by indexing the BASE nodes on a key
+ * (instance name for sub-components for example).
+ *
+ * Implementations only have to provide the key: they must be stateless so that
+ * a single instance can be shared.
+ *
+ * @param <T> the type of the matched nodes
+ */
+public abstract class NodeMatcher<T> {
+
+	/**
+	 * @param node a BASE or HEAD node
+	 * @return the key identifying the node in its container, must implement equals/hashCode
+	 */
+	protected abstract Object getKey(T node);
+
+	/**
+	 * Match the BASE and HEAD nodes sharing the same key.
+	 *
+	 * Matches are ordered as the HEAD nodes, remaining BASE nodes as the BASE nodes,
+	 * and remaining HEAD nodes as the HEAD nodes.
+	 * When a key is used twice in BASE, only the first node is a candidate for matching.
+	 *
+	 * @param baseNodes the old nodes
+	 * @param headNodes the new nodes
+	 * @return the matching result
+	 */
+	public Result<T> match(T[] baseNodes, T[] headNodes) {
+
+		Result<T> result = new Result<T>(Math.min(baseNodes.length, headNodes.length));
+
+		// index BASE nodes once
+		Map<Object, T> baseIndex = new HashMap<Object, T>(Math.max(16, baseNodes.length * 4 / 3 + 1));
+		for (T currBaseNode : baseNodes) {
+			Object key = getKey(currBaseNode);
+			if (!baseIndex.containsKey(key))
+				baseIndex.put(key, currBaseNode);
+		}
+
+		// keep track of who was met, to know the remaining ones in the end
+		Set<T> matchedBaseNodes = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>(baseNodes.length));
+
+		for (T currHeadNode : headNodes) {
+			// remove so that a BASE node can only be matched once
+			T currBaseNode = baseIndex.remove(getKey(currHeadNode));
+			if (currBaseNode != null) {
+				matchedBaseNodes.add(currBaseNode);
+				result.matches.add(new Match<T>(currBaseNode, currHeadNode));
+			} else
+				result.headOnly.add(currHeadNode);
+		}
+
+		for (T currBaseNode : baseNodes)
+			if (!matchedBaseNodes.contains(currBaseNode))
+				result.baseOnly.add(currBaseNode);
+
+		return result;
+	}
+
+	/**
+	 * A BASE node and the HEAD node sharing its key.
+	 */
+	public static class Match<T> {
+
+		private final T base;
+		private final T head;
+
+		Match(T base, T head) {
+			this.base = base;
+			this.head = head;
+		}
+
+		public T getBase() {
+			return base;
+		}
+
+		public T getHead() {
+			return head;
+		}
+	}
+
+	/**
+	 * Result of a matching: common nodes, and nodes only existing on one side.
+	 */
+	public static class Result<T> {
+
+		private final List<Match<T>> matches;
+		private final List<T> baseOnly = new ArrayList<T>();
+		private final List<T> headOnly = new ArrayList<T>();
+
+		Result(int expectedMatches) {
+			matches = new ArrayList<Match<T>>(expectedMatches);
+		}
+
+		/**
+		 * @return the nodes common to BASE and HEAD, in HEAD order
+		 */
+		public List<Match<T>> getMatches() {
+			return matches;
+		}
+
+		/**
+		 * @return the nodes existing in BASE but not in HEAD, in BASE order
+		 */
+		public List<T> getBaseOnly() {
+			return baseOnly;
+		}
+
+		/**
+		 * @return the nodes existing in HEAD but not in BASE, in HEAD order
+		 */
+		public List<T> getHeadOnly() {
+			return headOnly;
+		}
+	}
+}
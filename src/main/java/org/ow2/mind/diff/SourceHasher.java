@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import org.ow2.mind.adl.ast.Source;
+import org.ow2.mind.adl.implementation.ImplementationLocator;
+import org.ow2.mind.idl.IDLLocator;
+
+/**
+ * Computes content hashes of primitive sources: implementation files found
+ * through the ImplementationLocator of each context, and inline C code.
+ *
+ * Files are read through NIO (memory-mapped for big files), and their hashes are
+ * cached for the run by canonical path, the entry being only reused while the
+ * file size and modification time are unchanged.
+ */
+public class SourceHasher {
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Under this size, a plain channel read is cheaper than a mapping */
+	private static final long MAPPING_THRESHOLD = 64 * 1024;
+
+	/** Size of the mapped windows for huge files */
+	private static final long MAPPING_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	protected ImplementationLocator implementationLocatorItf;
+	protected IDLLocator idlLocatorItf;
+
+	/** File hashes by canonical path */
+	private final ConcurrentMap<String, FileHash> fileHashes = new ConcurrentHashMap<String, FileHash>();
+
+	public SourceHasher(ImplementationLocator implementationLocatorItf, IDLLocator idlLocatorItf) {
+		this.implementationLocatorItf = implementationLocatorItf;
+		this.idlLocatorItf = idlLocatorItf;
+	}
+
+	/**
+	 * @param source a source of a primitive, either a file or inline C code
+	 * @param context the context to locate the source file in
+	 * @return the content hash of the source, null if the source file can not be found or read
+	 */
+	public String getSourceHash(Source source, Map<Object, Object> context) {
+		String path = source.getPath();
+
+		if (path == null) {
+			String cCode = source.getCCode();
+			return cCode != null ? hashString(cCode) : null;
+		}
+
+		return hashLocatedFile(findSource(path, context));
+	}
+
+	/**
+	 * @param source a source of a primitive, either a file or inline C code
+	 * @param context the context to locate the source file in
+	 * @return the URL of the source file, null for inline C code or if the file can not be found
+	 */
+	public String getSourceLocation(Source source, Map<Object, Object> context) {
+		String path = source.getPath();
+		if (path == null)
+			return null;
+
+		URL url = findSource(path, context);
+		return url != null ? url.toString() : null;
+	}
+
+	/**
+	 * @param signature the signature of an interface
+	 * @param context the context to locate the IDL file in
+	 * @return the content hash of the IDL file, null if it can not be found or read
+	 */
+	public String getInterfaceHash(String signature, Map<Object, Object> context) {
+		return hashLocatedFile(findInterface(signature, context));
+	}
+
+	/**
+	 * @param signature the signature of an interface
+	 * @param context the context to locate the IDL file in
+	 * @return the URL of the IDL file, null if it can not be found
+	 */
+	public String getInterfaceLocation(String signature, Map<Object, Object> context) {
+		URL url = findInterface(signature, context);
+		return url != null ? url.toString() : null;
+	}
+
+	/**
+	 * @param url the URL of a source or IDL file, null if it could not be found
+	 * @return the content hash of the file, null if it can not be found or read
+	 */
+	private String hashLocatedFile(URL url) {
+		if (url == null)
+			return null;
+
+		try {
+			if ("file".equals(url.getProtocol()))
+				return hashFile(toFile(url));
+			return hashURL(url);
+		} catch (IOException e) {
+			Launcher.logger.log(Level.WARNING, "Could not read source " + url + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private URL findInterface(String signature, Map<Object, Object> context) {
+		// same as the implementation locator
+		synchronized (this) {
+			return idlLocatorItf.findSourceItf(signature, context);
+		}
+	}
+
+	private URL findSource(String path, Map<Object, Object> context) {
+		// the locator relies on the context, which is not thread-safe
+		synchronized (this) {
+			return implementationLocatorItf.findSource(path, context);
+		}
+	}
+
+	/**
+	 * @param file an existing file
+	 * @return the content hash of the file, computed once while the file is unmodified
+	 * @throws IOException
+	 */
+	public String hashFile(File file) throws IOException {
+		String canonicalPath = file.getCanonicalPath();
+		long size = file.length();
+		long lastModified = file.lastModified();
+
+		FileHash cached = fileHashes.get(canonicalPath);
+		if (cached != null && cached.size == size && cached.lastModified == lastModified)
+			return cached.hash;
+
+		String hash = computeFileHash(file, size);
+		fileHashes.put(canonicalPath, new FileHash(size, lastModified, hash));
+		return hash;
+	}
+
+	/**
+	 * @param code inline C code
+	 * @return the hash of the code
+	 */
+	public static String hashString(String code) {
+		MessageDigest digest = newDigest();
+		digest.update(code.getBytes(UTF8));
+		return toHex(digest.digest());
+	}
+
+	private static String computeFileHash(File file, long size) throws IOException {
+		MessageDigest digest = newDigest();
+
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			if (size < MAPPING_THRESHOLD) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0)
+						throw new IOException("Unexpected end of " + file + " after " + buffer.position() + " of " + size + " bytes");
+				}
+				buffer.flip();
+				digest.update(buffer);
+			} else {
+				// a mapping past the end of a file which shrank would not fail reliably
+				if (channel.size() < size)
+					throw new IOException("Unexpected end of " + file + " after " + channel.size() + " of " + size + " bytes");
+				for (long position = 0; position < size; position += MAPPING_WINDOW_SIZE) {
+					long windowSize = Math.min(MAPPING_WINDOW_SIZE, size - position);
+					digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize));
+				}
+			}
+		} finally {
+			fis.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Sources which are not plain files (in archives for example) are read as streams, without caching.
+	 */
+	private static String hashURL(URL url) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[8192];
+
+		InputStream is = url.openStream();
+		try {
+			int read;
+			while ((read = is.read(buffer)) >= 0)
+				digest.update(buffer, 0, read);
+		} finally {
+			is.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	private static File toFile(URL url) {
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return new File(url.getPath());
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	private static final class FileHash {
+		final long size;
+		final long lastModified;
+		final String hash;
+
+		FileHash(long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
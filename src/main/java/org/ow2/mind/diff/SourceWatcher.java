@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Watches the source directories (recursively) to know when loaded definitions become stale.
+ *
+ * Changes are only polled when asked, no thread is involved.
+ */
+public class SourceWatcher {
+
+	private final WatchService watchService;
+
+	/**
+	 * @param sourceDirs the directories to watch, the missing ones being ignored
+	 * @throws IOException
+	 */
+	public SourceWatcher(List<File> sourceDirs) throws IOException {
+		watchService = sourceDirs.isEmpty() ? null : sourceDirs.get(0).toPath().getFileSystem().newWatchService();
+		for (File sourceDir : sourceDirs)
+			if (sourceDir.isDirectory())
+				register(sourceDir.toPath());
+	}
+
+	/**
+	 * @return true when a file was created, modified or deleted since the previous call
+	 */
+	public boolean hasChanged() {
+		if (watchService == null)
+			return false;
+
+		boolean changed = false;
+		WatchKey key;
+		while ((key = watchService.poll()) != null) {
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				changed = true;
+
+				// new sub-directories have to be watched as well
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					Path child = dir.resolve((Path) event.context());
+					if (Files.isDirectory(child)) {
+						try {
+							register(child);
+						} catch (IOException e) {
+							Launcher.logger.log(Level.WARNING, "Could not watch " + child + ": " + e.getMessage());
+						}
+					}
+				}
+			}
+			key.reset();
+		}
+		return changed;
+	}
+
+	public void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// nothing more to watch anyway
+			}
+		}
+	}
+
+	private void register(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
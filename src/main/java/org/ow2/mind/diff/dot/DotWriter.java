@@ -22,11 +22,15 @@
 
 package org.ow2.mind.diff.dot;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -44,11 +48,26 @@ import org.ow2.mind.adl.ast.MindInterface;
 import org.ow2.mind.adl.ast.Source;
 import org.ow2.mind.adl.implementation.ImplementationLocator;
 import org.ow2.mind.diff.DiffHelper;
+import org.ow2.mind.diff.git.GitSourceClassLoader;
 
 import com.google.inject.Inject;
 
 
-public class DotWriter {
+public class DotWriter implements GraphWriter {
+
+	/**
+	 * Extension of the graphviz source files
+	 */
+	public static final String FILE_EXTENSION = ".gv";
+
+	/**
+	 * Graphviz reads UTF-8 by default
+	 */
+	private static final Charset DOT_CHARSET = Charset.forName("UTF-8");
+	/**
+	 * Size of the output buffer: the file is only flushed when it is closed, unless it is bigger
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
 
 	/**
 	 * The PrintWriter that will be used for all code generation of this component.
@@ -75,7 +94,7 @@ public class DotWriter {
 	/**
 	 * The graphviz source code string that will represent the sources 
 	 */
-	private String srcs="{\ncolor=none;\n";
+	private final StringBuilder srcs = new StringBuilder("{\ncolor=none;\n");
 	/**
 	 * A counter for the number of source files
 	 */
@@ -83,7 +102,7 @@ public class DotWriter {
 	/**
 	 * The graphviz source code string that will represent the server interfaces 
 	 */
-	private String srvItfs="{rank=source; color=none; ";
+	private final StringBuilder srvItfs = new StringBuilder("{rank=source; color=none; ");
 	/**
 	 * A counter for the number of server interfaces
 	 */
@@ -91,7 +110,7 @@ public class DotWriter {
 	/**
 	 * The graphviz source code string that will represent the client interfaces 
 	 */
-	private String cltItfs="{rank=sink; color=none; ";
+	private final StringBuilder cltItfs = new StringBuilder("{rank=sink; color=none; ");
 	/**
 	 * A counter for the number of client interfaces
 	 */
@@ -121,6 +140,36 @@ public class DotWriter {
 	@Inject
 	Loader adlLoaderItf;
 
+	/**
+	 * Lock serializing the loader and locator accesses, shared by the writers
+	 * generated in parallel
+	 */
+	private Object loaderLock = this;
+
+	public String getFileExtension() {
+		return FILE_EXTENSION;
+	}
+
+	/**
+	 * @param loaderLock the lock to hold when using the loader and the implementation locator
+	 */
+	public void setLoaderLock(Object loaderLock) {
+		this.loaderLock = loaderLock;
+	}
+
+	/**
+	 * Status inherited by all the nodes of the instance, when it belongs to an old or new sub-tree
+	 */
+	private int inheritedStatus = DiffHelper.NOT_INHERITED;
+
+	/**
+	 * @param inheritedStatus the status inherited from the enclosing components (see DiffHelper.getInheritedStatus),
+	 * to be set before init
+	 */
+	public void setInheritedStatus(int inheritedStatus) {
+		this.inheritedStatus = inheritedStatus;
+	}
+
 	/**
 	 * Initialize the DotWriter with the associated instance info 
 	 * @param dir the build directory for the output file
@@ -128,54 +177,96 @@ public class DotWriter {
 	 * @param component The "type" of the component
 	 * @param headContext 
 	 * @param cont the context
+	 * @throws IOException when the output file can not be created
 	 */
-	public void init(String dir, String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext) {
+	public void init(String dir, String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext) throws IOException {
+		buildDir = dir;
+		fileName = buildDir + File.separator + name + FILE_EXTENSION;
+		init(name, component, baseContext, headContext,
+				new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), DOT_CHARSET), OUTPUT_BUFFER_SIZE));
+	}
+
+	/**
+	 * Initialize the DotWriter with the associated instance info, 
+	 * the graphviz source code being written to the given output instead of a file.
+	 * @param name the full instance name (path in the instance diagram)
+	 * @param component The "type" of the component
+	 * @param baseContext
+	 * @param headContext
+	 * @param out where to write the graphviz source code, closed with the DotWriter
+	 */
+	public void init(String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext, Writer out) {
 		this.baseContext = baseContext;
 		this.headContext = headContext;
 
-		try {
-			compName = name;
-			final int i = name.lastIndexOf('.');
-			if (i == -1 ) { 
-				localName = name;
-			} else {
-				localName = name.substring(i + 1);
-			}
-			buildDir = dir;
-			fileName = buildDir + File.separator + compName + ".gv";
-			currentPrinter = new PrintWriter( new FileWriter( fileName ) );
-			String adlSource = null;
-			if (component!=null)
-				try {
-
-					//get adlSource in the form /absolute/path/comp.adl:[line,column]-[line,column]
-					if (DiffHelper.isOldComponent(component))
+		compName = name;
+		final int i = name.lastIndexOf('.');
+		if (i == -1 ) { 
+			localName = name;
+		} else {
+			localName = name.substring(i + 1);
+		}
+		currentPrinter = new PrintWriter(out);
+		String adlSource = null;
+		// the instance itself may be the root of an old or new sub-tree
+		if (component!=null)
+			inheritedStatus = DiffHelper.getInheritedStatus(component, inheritedStatus);
+		if (component!=null)
+			try {
+
+				//get adlSource in the form /absolute/path/comp.adl:[line,column]-[line,column]
+				synchronized (loaderLock) {
+					if (inheritedStatus == DiffHelper.INHERITED_OLD)
 						adlSource = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, baseContext).astGetSource();
 					else
 						// if isNewComponent or hasSubCompDefChanged or has not changed at all (no decoration), use the latest context  
 						adlSource = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, headContext).astGetSource();
-
-					//removing line information. (using lastIndexOf instead of split[0] as ":" is a valid path character)
-					if (adlSource != null) // Do  not test os if the source is null 
-					{
-						if (System.getProperty("os.name").toLowerCase().indexOf("win") >= 0) {
-							adlSource = adlSource.substring(1,adlSource.lastIndexOf(":"));
-						} else {
-							//Somehow windows paths come here with an extra "/" in front of the Drive letter.
-							adlSource = adlSource.substring(0,adlSource.lastIndexOf(":"));
-						}
-					}
-				} catch (ADLException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
 				}
-			writeHeader(adlSource);
-		} catch ( final IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+
+				if (adlSource != null) // Do  not test os if the source is null 
+					adlSource = getSourcePath(adlSource);
+			} catch (ADLException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		writeHeader(adlSource);
+	}
+
+	/**
+	 * @param adlSource an ADL source in the form /absolute/path/comp.adl:[line,column]-[line,column]
+	 * @return the path of the ADL file, null when the file is not on disk (see isGitSource)
+	 */
+	static String getSourcePath(String adlSource) {
+		if (isGitSource(adlSource))
+			return null;
+		//removing line information. (using lastIndexOf instead of split[0] as ":" is a valid path character)
+		if (System.getProperty("os.name").toLowerCase().indexOf("win") >= 0) {
+			return adlSource.substring(1,adlSource.lastIndexOf(":"));
+		} else {
+			//Somehow windows paths come here with an extra "/" in front of the Drive letter.
+			return adlSource.substring(0,adlSource.lastIndexOf(":"));
 		}
 	}
 
+	/**
+	 * @param source an AST source or a source URL
+	 * @return true when the source was read from a git revision (see GitSourceClassLoader):
+	 * there is no file to link to
+	 */
+	static boolean isGitSource(String source) {
+		return source.startsWith(GitSourceClassLoader.PROTOCOL + ":");
+	}
+
+	/**
+	 * @param url the URL of a source file, null if it could not be found
+	 * @return the absolute path of the file, null when there is no file on disk to link to
+	 */
+	static String getLinkPath(URL url) {
+		if (url == null || !"file".equals(url.getProtocol()))
+			return null;
+		return new File(url.getPath()).getAbsolutePath();
+	}
+
 	/**
 	 * Write the header of the graphviz source code
 	 * @param adlSource The ADL file describing the component 
@@ -199,24 +290,39 @@ public class DotWriter {
 	 * @param component the subcomponent
 	 */
 	public void addSubComponent(Component component) {
+		addSubComponent(component, compName + "." + component.getName() + FILE_EXTENSION);
+	}
+
+	/**
+	 * Write the graphviz source code for a contained subcomponent 
+	 * @param component the subcomponent
+	 * @param url the graphviz file of the subcomponent, null if there is none
+	 */
+	public void addSubComponent(Component component, String url) {
 		try {
 			int clientItf = 0;
 			int serverItf = 0;
 			DefinitionReference defRef = component.getDefinitionReference();
 			Definition definition = null;
 			String color = null;
+			// single lookup of all the flags of the component
+			int status = inheritedStatus | DiffHelper.getStatus(component);
 
-			if (DiffHelper.isOldComponent(component)) {
+			if ((status & DiffHelper.OLD) != 0) {
 				// if old definition, use the old info
-				definition = ASTHelper.getResolvedDefinition(defRef, adlLoaderItf, baseContext);
+				synchronized (loaderLock) {
+					definition = ASTHelper.getResolvedDefinition(defRef, adlLoaderItf, baseContext);
+				}
 				color = "red3";
 			} else {
 				// if new or changed or no change, use the new info
-				definition = ASTHelper.getResolvedDefinition(defRef, adlLoaderItf, headContext);
+				synchronized (loaderLock) {
+					definition = ASTHelper.getResolvedDefinition(defRef, adlLoaderItf, headContext);
+				}
 				
-				if (DiffHelper.isNewComponent(component)) {
+				if ((status & DiffHelper.NEW) != 0) {
 					color = "chartreuse3"; 
-				} else if (DiffHelper.hasSubCompDefChanged(component)) {
+				} else if ((status & DiffHelper.CHANGED) != 0) {
 					color = "darkgoldenrod2";
 				} else {
 					// no change
@@ -224,7 +330,10 @@ public class DotWriter {
 				}
 			}
 
-			currentPrinter.print(component.getName() + "Comp [URL=\"" + compName + "." + component.getName() + ".gv\",shape=Mrecord,style=filled,fillcolor=lightgrey,color=" + color + ",label=\"" + component.getName() + " | {{ " );
+			currentPrinter.print(component.getName() + "Comp [");
+			if (url != null)
+				currentPrinter.print("URL=\"" + url + "\",");
+			currentPrinter.print("shape=Mrecord,style=filled,fillcolor=lightgrey,color=" + color + ",label=\"" + component.getName() + " | {{ " );
 			if (definition instanceof InterfaceContainer) {
 
 				TreeSet<MindInterface> interfaces = new TreeSet<MindInterface>(new MindInterfaceComparator());
@@ -233,6 +342,8 @@ public class DotWriter {
 				//final Interface[] interfaces = ((InterfaceContainer) definition).getInterfaces();
 				//			for (int i = 0; i < interfaces.length; i++) {
 				//				final MindInterface itf = (MindInterface) interfaces[i];
+				// interfaces of an old or new sub-component are old or new as well
+				int inheritedItfStatus = status & (DiffHelper.OLD | DiffHelper.NEW);
 				for (MindInterface itf : interfaces) {
 					if (itf.getRole().equals(TypeInterface.SERVER_ROLE)) {
 						if ( serverItf !=0 )
@@ -241,11 +352,12 @@ public class DotWriter {
 						// label changes whether intefaces still exists, doesn't exist anymore, or is new
 						// we do this since with our viewer we cannot set a different color for elements of a record
 						String label = itf.getName();
-						if (DiffHelper.isNewInterface(itf))
+						int itfStatus = inheritedItfStatus | DiffHelper.getStatus(itf);
+						if ((itfStatus & DiffHelper.NEW) != 0)
 							label = "++ " + label;
-						else if (DiffHelper.isOldInterface(itf))
+						else if ((itfStatus & DiffHelper.OLD) != 0)
 							label = "-- " + label;
-						else if (DiffHelper.hasInterfaceDefinitionChanged(itf))
+						else if ((itfStatus & DiffHelper.CHANGED) != 0)
 							label = "<> " + label;
 
 						currentPrinter.print("<" + itf.getName() + "> " + label);
@@ -264,11 +376,12 @@ public class DotWriter {
 						// label changes whether intefaces still exists, doesn't exist anymore, or is new
 						// we do this since with our viewer we cannot set a different color for elements of a record
 						String label = itf.getName();
-						if (DiffHelper.isNewInterface(itf))
+						int itfStatus = inheritedItfStatus | DiffHelper.getStatus(itf);
+						if ((itfStatus & DiffHelper.NEW) != 0)
 							label = label + " ++";
-						else if (DiffHelper.isOldInterface(itf))
+						else if ((itfStatus & DiffHelper.OLD) != 0)
 							label = label + " --";
-						else if (DiffHelper.hasInterfaceDefinitionChanged(itf))
+						else if ((itfStatus & DiffHelper.CHANGED) != 0)
 							label = label + " <>";
 
 						currentPrinter.print("<" + itf.getName() + "> " + label);
@@ -294,9 +407,10 @@ public class DotWriter {
 	public void addBinding(Binding binding) {
 
 		color = 9;
-		if (DiffHelper.isNewBinding(binding))
+		int status = inheritedStatus | DiffHelper.getStatus(binding);
+		if ((status & DiffHelper.NEW) != 0)
 			color = 3;
-		else if (DiffHelper.isOldBinding(binding))
+		else if ((status & DiffHelper.OLD) != 0)
 			color = 1;
 
 		String fc = binding.getFromComponent();
@@ -327,24 +441,30 @@ public class DotWriter {
 		if (srcPath != null) {
 			
 			URL url = null;
+			int status = inheritedStatus | DiffHelper.getStatus(source);
 			
-			if (DiffHelper.isOldSource(source))
-				url = implementationLocatorItf.findSource(srcPath, baseContext);
-			else
-				// if new or changed or not changed, load from latest context
-				url = implementationLocatorItf.findSource(srcPath, headContext);
+			synchronized (loaderLock) {
+				if ((status & DiffHelper.OLD) != 0)
+					url = implementationLocatorItf.findSource(srcPath, baseContext);
+				else
+					// if new or changed or not changed, load from latest context
+					url = implementationLocatorItf.findSource(srcPath, headContext);
+			}
 			
 			String s;
-			File f; f = new File( url.getPath() );
+			String linkPath = getLinkPath(url);
 
 			String color = "black";
-			if (DiffHelper.isNewSource(source))
+			if ((status & DiffHelper.NEW) != 0)
 				color = "chartreuse3";
-			else if (DiffHelper.isOldSource(source))
+			else if ((status & DiffHelper.OLD) != 0)
 				color = "red3";
+			else if ((status & DiffHelper.CHANGED) != 0)
+				color = "darkgoldenrod2";
 
-			s = "\", URL=\"" + f.getAbsolutePath() + "\"";
-			srcs=srcs + srcNb + "[shape=note,label=\"" + source.getPath() + s + ",color="+ color +"];\n";
+			// files read from a git revision are only labelled with their path
+			s = linkPath != null ? "\", URL=\"" + linkPath + "\"" : "\"";
+			srcs.append(srcNb).append("[shape=note,label=\"").append(source.getPath()).append(s).append(",color=").append(color).append("];\n");
 			srcNb++;
 		}
 	}
@@ -352,21 +472,23 @@ public class DotWriter {
 	/**
 	 * Add a server interface to the graphviz source code.
 	 * @param itfName : the name of the interface instance (as on the "provides" line in ADL)
-	 * @param itfURI : the source file path for the .itf file.
+	 * @param itfURI : the source file path for the .itf file, null for no link.
 	 */
 	public void addServer(String itfName, String itfURI, String color) {
-		srvItfs=srvItfs + "Srv" + itfName + " [shape=record,style=filled,fillcolor=firebrick2,penwidth=2,color=" + color + ",label=\"" + itfName + "\", URL=\"" + itfURI + "\", height=1 ];";
+		srvItfs.append("Srv").append(itfName).append(" [shape=record,style=filled,fillcolor=firebrick2,penwidth=2,color=").append(color)
+			.append(",label=\"").append(itfName).append(itfURI != null ? "\", URL=\"" + itfURI : "").append("\", height=1 ];");
 		srvItfsNb++;
 	}
 
 	/**
 	 * Add a client interface to the graphviz source code.
 	 * @param itfName : the name of the interface instance (as on the "requires" line in ADL)
-	 * @param itfURI : the source file path for the .itf file.
+	 * @param itfURI : the source file path for the .itf file, null for no link.
 	 * @param color 
 	 */
 	public void addClient(String itfName, String itfURI, String color) {
-		cltItfs=cltItfs + "Clt" + itfName + " [shape=record,style=filled,fillcolor=palegreen,penwidth=2,color=" + color + ",label=\"" + itfName + "\", URL=\"" + itfURI + "\", height=1 ];";
+		cltItfs.append("Clt").append(itfName).append(" [shape=record,style=filled,fillcolor=palegreen,penwidth=2,color=").append(color)
+			.append(",label=\"").append(itfName).append(itfURI != null ? "\", URL=\"" + itfURI : "").append("\", height=1 ];");
 		cltItfsNb++;	
 	}
 
@@ -383,14 +505,15 @@ public class DotWriter {
 		if (cltItfsNb > maxItf) maxItf=cltItfsNb;
 		if (srvItfsNb > maxItf) maxItf=srvItfsNb;
 		if (srcNb > maxItf) maxItf=srcNb;
-		srvItfs=srvItfs + "}";
-		cltItfs=cltItfs + "}";
-		srcs=srcs + "}\n";
+		srvItfs.append("}");
+		cltItfs.append("}");
+		srcs.append("}\n");
 		if (srvItfsNb > 0) currentPrinter.println(srvItfs);
 		if (cltItfsNb > 0) currentPrinter.println(cltItfs);
 		if (srcNb > 0) currentPrinter.println(srcs);
 		currentPrinter.println("}");
 		currentPrinter.println("}");
+		// single flush for the whole file
 		currentPrinter.close();
 	}
 
@@ -22,13 +22,31 @@
 
 package org.ow2.mind.diff.dot;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import org.objectweb.fractal.adl.ADLException;
 import org.objectweb.fractal.adl.Definition;
 import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.Node;
 import org.objectweb.fractal.adl.interfaces.Interface;
 import org.objectweb.fractal.adl.interfaces.InterfaceContainer;
 import org.objectweb.fractal.adl.types.TypeInterface;
@@ -40,8 +58,12 @@ import org.ow2.mind.adl.ast.ComponentContainer;
 import org.ow2.mind.adl.ast.ImplementationContainer;
 import org.ow2.mind.adl.ast.MindInterface;
 import org.ow2.mind.adl.ast.Source;
+import org.ow2.mind.diff.ArchitecturesComparator;
+import org.ow2.mind.diff.DiffCache;
 import org.ow2.mind.diff.DiffHelper;
+import org.ow2.mind.diff.DiffStatistics;
 import org.ow2.mind.diff.Launcher;
+import org.ow2.mind.diff.SourceHasher;
 import org.ow2.mind.idl.IDLLoader;
 import org.ow2.mind.io.BasicOutputFileLocator;
 
@@ -71,11 +93,299 @@ public class DumpDotGenerator {
 	
 	private String buildDir;
 
-	private void showComposite(final Definition definition, String instanceName, DotWriter currentDot) {
+	/**
+	 * Number of threads writing the .gv files, 1 for sequential generation
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Number of pending files per writing thread, before the traversal has to wait (or write by itself)
+	 */
+	private static final int PENDING_FILES_PER_THREAD = 16;
+
+	/**
+	 * The writing threads, null when sequential
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Loaders and locators are not thread-safe: their accesses are serialized
+	 * when generating in parallel
+	 */
+	private final Object loaderLock = new Object();
+
+	/**
+	 * Files which could not be generated, with the reason
+	 */
+	private final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * Write one file per distinct definition instead of one file per instance
+	 */
+	private boolean deduplicate = false;
+
+	/**
+	 * Content-addressed file names of the definitions already written, 
+	 * for the definitions resolved in BASE (old sub-trees) and HEAD (new sub-trees, and the others)
+	 */
+	private final Map<Definition, String> baseFileNames = new IdentityHashMap<Definition, String>();
+	private final Map<Definition, String> addedFileNames = new IdentityHashMap<Definition, String>();
+	private final Map<Definition, String> headFileNames = new IdentityHashMap<Definition, String>();
+
+	private static final Charset DOT_CHARSET = Charset.forName("UTF-8");
+	/**
+	 * Size of the output buffer of a file: it is only flushed when closed, unless it is bigger
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Outputs of the previous runs, null when not used
+	 */
+	private DiffCache diffCache = null;
+
+	/**
+	 * Counts of the resolved definitions and written files, null when not counted
+	 */
+	private DiffStatistics statistics = null;
+
+	/**
+	 * The sub-trees generated during this generation, recorded in the cache in the end
+	 * when all their files could be written
+	 */
+	private final List<CacheUpdate> cacheUpdates = new ArrayList<CacheUpdate>();
+
+	/**
+	 * The instances generated or found up-to-date during this generation, sorted by name
+	 * for the cache entries of their parents to be recorded with them
+	 */
+	private final SortedSet<String> cachedInstances = new TreeSet<String>();
+
+	/**
+	 * Default name of the top-level instance, prefix of all the instance names
+	 */
+	public static final String TOP_LEVEL_NAME = "TopLevel"; //FIXME get the executable name.
+
+	private String topLevelName = TOP_LEVEL_NAME;
+
+	/**
+	 * Deepest level of generated instances, the top-level being at level 0
+	 */
+	private int maxDepth = ArchitecturesComparator.UNLIMITED_DEPTH;
+
+	/**
+	 * Do not write the files of the identical sub-trees
+	 */
+	private boolean changedOnly = false;
+
+	/**
+	 * Render the graphs as SVG files instead of writing graphviz source code
+	 */
+	private boolean svg = false;
+
+	/**
+	 * Archive holding all the files instead of the build directory, null for loose files
+	 */
+	private File bundleFile = null;
+
+	/**
+	 * The archive being written during the generation
+	 */
+	private GraphBundle bundle = null;
+
+	/**
+	 * Location of the files in the output directory (or in the bundle)
+	 */
+	private OutputLayout outputLayout = new FlatOutputLayout();
+
+	/**
+	 * Hash of a content-addressed file, to find the depth of these files (see getRelativeURL)
+	 */
+	private static final String CONTENT_PATH_PLACEHOLDER = "00";
+
+	/**
+	 * @param parallelism the number of threads writing the .gv files, 1 or less for sequential generation
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param deduplicate when true, write a single file per distinct definition, named after the hash of its content,
+	 * and only when no such file exists already. Instances of the same definition then share their file.
+	 * The top-level file is still "TopLevel.gv".
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * @param diffCache the outputs of the previous runs: sub-trees whose inputs did not change are not generated again,
+	 * null not to use any. The cache is updated with the generated sub-trees.
+	 */
+	public void setDiffCache(DiffCache diffCache) {
+		this.diffCache = diffCache;
+	}
+
+	/**
+	 * @param topLevelName the name of the top-level instance, prefix of all the file names
+	 * (e.g. "TopLevel.comm.stack" when only the sub-tree of this instance is compared)
+	 */
+	public void setTopLevelName(String topLevelName) {
+		this.topLevelName = topLevelName;
+	}
+
+	/**
+	 * @param maxDepth the deepest level of generated instances, the top-level being at level 0:
+	 * deeper sub-components are drawn in their parent graph without any link.
+	 * ArchitecturesComparator.UNLIMITED_DEPTH to generate the whole tree.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param changedOnly when true, only write the files of the instances containing a change, and of the top-level:
+	 * the sub-components whose sub-tree is identical are drawn in their parent graph without any link
+	 * (see DiffHelper.setIdentical)
+	 */
+	public void setChangedOnly(boolean changedOnly) {
+		this.changedOnly = changedOnly;
+	}
+
+	/**
+	 * @param svg when true, render the graphs as .svg files (see SvgWriter) instead of writing .gv files
+	 * to be processed by graphviz
+	 */
+	public void setSvg(boolean svg) {
+		this.svg = svg;
+	}
+
+	/**
+	 * @param bundleFile the zip archive where to write all the files, entries being named as the loose files
+	 * (see GraphBundle), null to write them in the output directory.
+	 * The archive is rewritten by each generation: it can not be used with a diff cache.
+	 */
+	public void setBundleFile(File bundleFile) {
+		this.bundleFile = bundleFile;
+	}
+
+	/**
+	 * @param outputLayout the location of the files in the output directory, a FlatOutputLayout by default
+	 */
+	public void setOutputLayout(OutputLayout outputLayout) {
+		this.outputLayout = outputLayout;
+	}
+
+	/**
+	 * @param statistics the statistics of the diff, counting the definitions resolved and the files written,
+	 * null not to count anything
+	 */
+	public void setStatistics(DiffStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @return the files which could not be generated during the last generation, with the reason
+	 */
+	public List<String> getFailures() {
+		return new ArrayList<String>(failures);
+	}
+
+	/**
+	 * Get instance from the injector so its @Inject fields get properly injected (ADL Loader especially)
+	 */
+	private GraphWriter newGraphWriter() {
+		GraphWriter graphWriter = svg ? injector.getInstance(SvgWriter.class) : injector.getInstance(DotWriter.class);
+		graphWriter.setLoaderLock(loaderLock);
+		return graphWriter;
+	}
+
+	/**
+	 * @return the extension of the written files
+	 */
+	private String getFileExtension() {
+		return svg ? SvgWriter.FILE_EXTENSION : DotWriter.FILE_EXTENSION;
+	}
+
+	/**
+	 * @return the path of the file of the instance, relative to the output directory
+	 */
+	private String getInstancePath(String instanceName) {
+		return outputLayout.getInstancePath(instanceName, getFileExtension());
+	}
+
+	/**
+	 * @param fromPath the path of a file, relative to the output directory
+	 * @param toPath the path of the linked file, relative to the output directory
+	 * @return the link from the first file to the second one: up to the output directory, then down to the linked file.
+	 * Only the depth of fromPath matters, so that content-addressed files can link to other files before their own path is known.
+	 */
+	private static String getRelativeURL(String fromPath, String toPath) {
+		StringBuilder url = new StringBuilder();
+		for (int i = 0; i < fromPath.length(); i++)
+			if (fromPath.charAt(i) == '/')
+				url.append("../");
+		return url.append(toPath).toString();
+	}
+
+	/**
+	 * Initialize the writer of the file of an instance: in the build directory, or in memory when bundled.
+	 * @return the content to be added to the bundle once the writer is closed (see addToBundle), null when written to a file
+	 */
+	private StringWriter initGraphWriter(GraphWriter graphWriter, String instanceName, Component component) throws IOException {
+		if (bundle == null) {
+			File file = new File(buildDir, getInstancePath(instanceName));
+			// directories of the layout are created on demand, possibly by several writing threads
+			file.getParentFile().mkdirs();
+			graphWriter.init(instanceName, component, baseContext, headContext,
+					new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), DOT_CHARSET), OUTPUT_BUFFER_SIZE));
+			return null;
+		}
+		StringWriter content = new StringWriter();
+		graphWriter.init(instanceName, component, baseContext, headContext, content);
+		return content;
+	}
+
+	/**
+	 * @param content the content returned by initGraphWriter, null when written to a file
+	 */
+	private void addToBundle(String instanceName, StringWriter content) throws IOException {
+		if (content != null)
+			bundle.addEntry(getInstancePath(instanceName), content.toString());
+	}
+
+	/**
+	 * Complete the bundle, once all the files are written
+	 */
+	private void closeBundle() {
+		if (bundle == null)
+			return;
+		try {
+			bundle.close();
+			Launcher.logger.info("Graph generator: " + bundle.size() + " files bundled in " + bundle.getFile() + ".");
+		} catch (IOException e) {
+			failures.add(bundle.getFile() + ": " + e);
+		}
+		bundle = null;
+	}
+
+	/**
+	 * @param filePath the path of the file being written, relative to the output directory
+	 * @param subComponentFiles the paths of the files of the sub-components, null for the instance files
+	 * @param inheritedStatus the status of the sub-tree of the definition
+	 */
+	private void showComposite(final Definition definition, String instanceName, GraphWriter currentDot, String filePath, String[] subComponentFiles, int inheritedStatus) {
 		final Component[] subComponents = ((ComponentContainer) definition)
 				.getComponents();
+		// no file for the sub-components deeper than the depth limit
+		boolean linked = !isBeyondMaxDepth(instanceName + ".");
 		for (int i = 0; i < subComponents.length; i++) {
-			currentDot.addSubComponent(subComponents[i]);
+			if (!linked || isPruned(subComponents[i], inheritedStatus, definition))
+				currentDot.addSubComponent(subComponents[i], null);
+			else if (subComponentFiles == null)
+				currentDot.addSubComponent(subComponents[i], getRelativeURL(filePath, getInstancePath(instanceName + "." + subComponents[i].getName())));
+			else
+				currentDot.addSubComponent(subComponents[i], subComponentFiles[i] == null ? null : getRelativeURL(filePath, subComponentFiles[i]));
 		}
 
 		TreeSet<Binding> bindings = new TreeSet<Binding>( new BindingComparator() );
@@ -86,14 +396,23 @@ public class DumpDotGenerator {
 			currentDot.addBinding(binding);
 		}
 
+	}
+
+	/**
+	 * @param inheritedStatus the status of the sub-tree of the definition (see DiffHelper.getInheritedStatus)
+	 */
+	private void showSubComponents(final Definition definition, String instanceName, int inheritedStatus) {
+		final Component[] subComponents = ((ComponentContainer) definition)
+				.getComponents();
 		for (int i = 0; i < subComponents.length; i++) {
 			final Component subComponent = subComponents[i];
-			showComponents(subComponent, instanceName);
+			if (isPruned(subComponent, inheritedStatus, definition))
+				continue;
+			showComponents(subComponent, instanceName, inheritedStatus);
 		}
-
 	}
 
-	private void showPrimitive(final Definition definition, String instanceName, DotWriter currentDot) {
+	private void showPrimitive(final Definition definition, String instanceName, GraphWriter currentDot) {
 		final Source[] sources = ((ImplementationContainer) definition).getSources();
 
 		for (int i = 0; i < sources.length; i++) {
@@ -102,23 +421,271 @@ public class DumpDotGenerator {
 
 	}	
 
-	private void showComponents(final Component component, String instanceName) {
+	private void showComponents(final Component component, String parentInstanceName, int inheritedStatus) {
+
+		String instanceName = parentInstanceName + "." + component.getName();
+		if (isBeyondMaxDepth(instanceName))
+			return;
 
 		try {
-			Definition definition = null;
-			
-			if (DiffHelper.isOldComponent(component))
+			// old and new sub-trees are only resolved when walked down
+			int status = DiffHelper.getInheritedStatus(component, inheritedStatus);
+			Definition definition = resolveDefinition(component, status);
+
+			// files of the previous run still valid ?
+			if (isUpToDate(definition, component, instanceName))
+				return;
+
+			writeInstance(definition, instanceName, component, status);
+
+			if (ASTHelper.isComposite(definition))
+				showSubComponents(definition, instanceName, status);
+
+			recordCacheUpdate(component, instanceName, getInstancePath(instanceName));
+		} catch (final ADLException e) {
+			// keep on with the other files
+			failures.add(instanceName + ": " + e);
+			Launcher.logger.log(Level.FINE, "Could not generate graph of " + instanceName, e);
+		}
+
+	}
+
+	/**
+	 * @param status the status of the component sub-tree
+	 */
+	private Definition resolveDefinition(final Component component, int status) throws ADLException {
+		Definition definition;
+		synchronized (loaderLock) {
+			if (status == DiffHelper.INHERITED_OLD)
 				definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, baseContext);
 			else
 				// if is new or changed type or unchanged, use latest context
 				definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, headContext);
-				
-			instanceName = instanceName + "." + component.getName();
+		}
+		if (statistics != null)
+			statistics.countDefinition(definition);
+		return definition;
+	}
+
+	/**
+	 * Write the files of the sub-components of a definition, in deduplicated mode.
+	 * @param inheritedStatus the status of the sub-tree of the definition
+	 * @return the names of the files of the sub-components, null for the ones which could not be written
+	 */
+	private String[] showDeduplicatedSubComponents(final Definition definition, String instanceName, int inheritedStatus) {
+		final Component[] subComponents = ((ComponentContainer) definition)
+				.getComponents();
+		String[] fileNames = new String[subComponents.length];
+		for (int i = 0; i < subComponents.length; i++) {
+			String subInstanceName = instanceName + "." + subComponents[i].getName();
+			if (isBeyondMaxDepth(subInstanceName) || isPruned(subComponents[i], inheritedStatus, definition))
+				continue;
+			try {
+				int status = DiffHelper.getInheritedStatus(subComponents[i], inheritedStatus);
+				Definition subDefinition = resolveDefinition(subComponents[i], status);
+				if (isUpToDate(subDefinition, subComponents[i], subInstanceName)) {
+					// file of the previous run still valid
+					fileNames[i] = diffCache.getFileName(getRelativePath(subInstanceName));
+				} else {
+					fileNames[i] = showDeduplicatedComponent(subDefinition, subComponents[i], subInstanceName, status);
+					recordCacheUpdate(subComponents[i], subInstanceName, fileNames[i]);
+				}
+			} catch (final Exception e) {
+				// keep on with the other files
+				failures.add(subInstanceName + ": " + e);
+				Launcher.logger.log(Level.FINE, "Could not generate graph of " + subInstanceName, e);
+			}
+		}
+		return fileNames;
+	}
+
+	/**
+	 * Write the file of a component definition, named after the hash of its content, in deduplicated mode.
+	 * The sub-components files are written first, since the file links to them.
+	 * @param instanceName one of the instances of the definition, for error reporting
+	 * @param status the status of the component sub-tree
+	 * @return the name of the file
+	 */
+	private String showDeduplicatedComponent(final Definition definition, final Component component, String instanceName, int status) throws ADLException, IOException {
+		// the rendering depends on the context the definition was resolved in, and on the inherited status
+		Map<Definition, String> fileNames = status == DiffHelper.INHERITED_OLD ? baseFileNames
+				: (status == DiffHelper.INHERITED_NEW ? addedFileNames : headFileNames);
+		String fileName = fileNames.get(definition);
+		if (fileName != null)
+			return fileName;
+
+		String[] subComponentFiles = null;
+		if (ASTHelper.isComposite(definition))
+			subComponentFiles = showDeduplicatedSubComponents(definition, instanceName, status);
+
+		// the graph is named after the definition, so that the content does not depend on the instance
+		StringWriter content = new StringWriter();
+		GraphWriter currentDot = newGraphWriter();
+		currentDot.setInheritedStatus(status);
+		currentDot.init(definition.getName(), component, baseContext, headContext, content);
 
-			DotWriter currentDot = injector.getInstance(DotWriter.class); 
-			currentDot.init(buildDir, instanceName, component, baseContext, headContext);
+		showInterfaces(definition, currentDot, status);
+		if (ASTHelper.isComposite(definition))
+			showComposite(definition, instanceName, currentDot, outputLayout.getContentPath(CONTENT_PATH_PLACEHOLDER, getFileExtension()),
+					subComponentFiles, status);
+		if (ASTHelper.isPrimitive(definition))
+			showPrimitive(definition, instanceName, currentDot);
+		currentDot.close();
 
-			showInterfaces(definition, currentDot);
+		String dot = content.toString();
+		fileName = outputLayout.getContentPath(SourceHasher.hashString(dot), getFileExtension());
+		boolean written = bundle != null ? bundle.addEntry(fileName, dot) : writeIfAbsent(new File(buildDir, fileName), dot);
+		if (written && statistics != null)
+			statistics.increment(DiffStatistics.FILES_WRITTEN);
+
+		fileNames.put(definition, fileName);
+		return fileName;
+	}
+
+	/**
+	 * Content-addressed files are never rewritten: an existing file already has the right content.
+	 * The content is written to a temporary file first, so that an interrupted run leaves no truncated file behind.
+	 * @return false when the file already existed
+	 */
+	private static boolean writeIfAbsent(File file, String content) throws IOException {
+		if (file.exists())
+			return false;
+
+		file.getParentFile().mkdirs();
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		OutputStream os = new FileOutputStream(tmpFile);
+		try {
+			os.write(content.getBytes(DOT_CHARSET));
+		} finally {
+			os.close();
+		}
+		if (!tmpFile.renameTo(file) && !file.exists())
+			throw new IOException("Could not rename " + tmpFile + " to " + file);
+		tmpFile.delete();
+		return true;
+	}
+
+	/**
+	 * @param instanceName full instance name, starting with the top-level name
+	 * @return the instance path, relative to the top-level, as used in the diff cache
+	 */
+	private String getRelativePath(String instanceName) {
+		return instanceName.substring(topLevelName.length());
+	}
+
+	/**
+	 * @param component a sub-component
+	 * @param inheritedStatus the status of the sub-tree of its parent
+	 * @param parentDefinition the diff definition of its parent
+	 * @return true when no file is to be written for the sub-component, its sub-tree being identical
+	 * (see setChangedOnly): the sub-component itself, or its parent when the whole trees are identical
+	 */
+	private boolean isPruned(Component component, int inheritedStatus, Definition parentDefinition) {
+		return changedOnly && inheritedStatus == DiffHelper.NOT_INHERITED
+				&& (DiffHelper.isIdentical(component) || DiffHelper.isIdentical(parentDefinition));
+	}
+
+	/**
+	 * @param instanceName full instance name, starting with the top-level name
+	 * @return true when the instance is deeper than the depth limit
+	 */
+	private boolean isBeyondMaxDepth(String instanceName) {
+		if (maxDepth == ArchitecturesComparator.UNLIMITED_DEPTH)
+			return false;
+		String relativePath = getRelativePath(instanceName);
+		int depth = 0;
+		for (int i = 0; i < relativePath.length(); i++)
+			if (relativePath.charAt(i) == '.')
+				depth++;
+		return depth > maxDepth;
+	}
+
+	/**
+	 * @param definition the diff definition of the instance
+	 * @param keyNode the node holding the diff cache key: the component, or the top-level definition
+	 * @return true when the files of the instance sub-tree were generated from the same inputs by a previous run
+	 */
+	private boolean isUpToDate(Definition definition, Node keyNode, String instanceName) {
+		String key = DiffHelper.getDiffKey(keyNode);
+		// not compared, since up-to-date
+		if (DiffHelper.isDiffCached(definition)
+				|| (diffCache != null && key != null && diffCache.isUpToDate(getRelativePath(instanceName), key))) {
+			cachedInstances.add(instanceName);
+			return true;
+		}
+		return false;
+	}
+
+	private void recordCacheUpdate(Node keyNode, String instanceName, String fileName) {
+		String key = DiffHelper.getDiffKey(keyNode);
+		if (diffCache != null && key != null) {
+			cacheUpdates.add(new CacheUpdate(instanceName, key, fileName));
+			cachedInstances.add(instanceName);
+		}
+	}
+
+	/**
+	 * @return the relative paths of the direct sub-instances of an instance, generated or up-to-date
+	 */
+	private List<String> getCachedSubInstances(String instanceName) {
+		List<String> subInstancePaths = new ArrayList<String>();
+		// '/' follows '.'
+		for (String currName : cachedInstances.subSet(instanceName + ".", instanceName + "/"))
+			if (currName.indexOf('.', instanceName.length() + 1) < 0)
+				subInstancePaths.add(getRelativePath(currName));
+		return subInstancePaths;
+	}
+
+	/**
+	 * Record the generated sub-trees in the cache, except the ones with files which could not be written.
+	 */
+	private void updateCache() {
+		if (diffCache != null)
+			for (CacheUpdate update : cacheUpdates) {
+				boolean failed = false;
+				for (String failure : failures)
+					if (failure.startsWith(update.instanceName + ":") || failure.startsWith(update.instanceName + ".")) {
+						failed = true;
+						break;
+					}
+				// sub-instances first, as generated
+				if (!failed)
+					diffCache.put(getRelativePath(update.instanceName), update.key, update.fileName,
+							getCachedSubInstances(update.instanceName));
+				else
+					// the previous files may have been overwritten
+					diffCache.remove(getRelativePath(update.instanceName));
+			}
+		cacheUpdates.clear();
+		cachedInstances.clear();
+	}
+
+	/**
+	 * Write the .gv file of an instance: in the calling thread when sequential,
+	 * by the writing threads otherwise.
+	 */
+	private void writeInstance(final Definition definition, final String instanceName, final Component component, final int status) {
+		if (executor == null) {
+			doWriteInstance(definition, instanceName, component, status);
+			return;
+		}
+
+		// when too many files are pending, the traversal thread writes by itself (back-pressure)
+		executor.execute(new Runnable() {
+			public void run() {
+				doWriteInstance(definition, instanceName, component, status);
+			}
+		});
+	}
+
+	private void doWriteInstance(final Definition definition, final String instanceName, final Component component, int status) {
+		try {
+			GraphWriter currentDot = newGraphWriter();
+			currentDot.setInheritedStatus(status);
+			StringWriter content = initGraphWriter(currentDot, instanceName, component);
+
+			showInterfaces(definition, currentDot, status);
 
 			/*
 			 * With Mind-Diff, a definition can be both kinds of nodes.
@@ -127,21 +694,27 @@ public class DumpDotGenerator {
 			 */
 			
 			if (ASTHelper.isComposite(definition))
-				showComposite(definition, instanceName, currentDot);
+				showComposite(definition, instanceName, currentDot, getInstancePath(instanceName), null, status);
 			
 			if (ASTHelper.isPrimitive(definition))
 				showPrimitive(definition, instanceName, currentDot);
 				
 			currentDot.close();
-		} catch (final ADLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			addToBundle(instanceName, content);
+			if (statistics != null)
+				statistics.increment(DiffStatistics.FILES_WRITTEN);
+		} catch (final Exception e) {
+			// keep on with the other files
+			failures.add(instanceName + ": " + e);
+			Launcher.logger.log(Level.FINE, "Could not generate graph of " + instanceName, e);
 		}
-
 	}
 
+	/**
+	 * @param status the status of the instance sub-tree, the interfaces being old or new by inheritance
+	 */
 	private void showInterfaces(Definition definition,
-			DotWriter currentDot) throws ADLException {
+			GraphWriter currentDot, int status) throws ADLException {
 		
 		if (!(definition instanceof InterfaceContainer))
 			return;
@@ -153,28 +726,37 @@ public class DumpDotGenerator {
 		for (MindInterface itf : interfaces) {
 			
 			String itfSource = null;
+			// single lookup of all the flags of the interface
+			int itfStatus = status | DiffHelper.getStatus(itf);
 			
-			if (DiffHelper.isOldInterface(itf))
-				itfSource = idlLoaderItf.load(itf.getSignature(), baseContext).astGetSource();
-			else
-				// if new or type changed or no change, use the latest context
-				itfSource = idlLoaderItf.load(itf.getSignature(), headContext).astGetSource();
+			synchronized (loaderLock) {
+				if ((itfStatus & DiffHelper.OLD) != 0)
+					itfSource = idlLoaderItf.load(itf.getSignature(), baseContext).astGetSource();
+				else
+					// if new or type changed or no change, use the latest context
+					itfSource = idlLoaderItf.load(itf.getSignature(), headContext).astGetSource();
+			}
 			
-			int i = itfSource.lastIndexOf(":");
-			itfSource = itfSource.substring(0,i);
-			File itfFile=new File(itfSource);
-			itfSource = itfFile.getAbsolutePath();
+			// files read from a git revision are not on disk: no link
+			if (DotWriter.isGitSource(itfSource))
+				itfSource = null;
+			else {
+				int i = itfSource.lastIndexOf(":");
+				itfSource = itfSource.substring(0,i);
+				File itfFile=new File(itfSource);
+				itfSource = itfFile.getAbsolutePath();
+			}
 			
 			String color = "";
 			
 			if (itf.getRole().equals(TypeInterface.SERVER_ROLE)) {
 				
 				color = "black";
-				if (DiffHelper.isNewInterface((Interface) itf))
+				if ((itfStatus & DiffHelper.NEW) != 0)
 					color = "chartreuse3";
-				else if (DiffHelper.isOldInterface((Interface) itf))
+				else if ((itfStatus & DiffHelper.OLD) != 0)
 					color = "red3";
-				else if (DiffHelper.hasInterfaceDefinitionChanged(itf))
+				else if ((itfStatus & DiffHelper.CHANGED) != 0)
 					color = "darkgoldenrod2";
 				
 				currentDot.addServer(itf.getName(), itfSource, color);
@@ -182,11 +764,11 @@ public class DumpDotGenerator {
 			if (itf.getRole().equals(TypeInterface.CLIENT_ROLE)) {
 				
 				color = "black";
-				if (DiffHelper.isNewInterface((Interface) itf))
+				if ((itfStatus & DiffHelper.NEW) != 0)
 					color = "chartreuse3";
-				else if (DiffHelper.isOldInterface((Interface) itf))
+				else if ((itfStatus & DiffHelper.OLD) != 0)
 					color = "red3";
-				else if (DiffHelper.hasInterfaceDefinitionChanged(itf))
+				else if ((itfStatus & DiffHelper.CHANGED) != 0)
 					color = "darkgoldenrod2";
 				
 				currentDot.addClient(itf.getName(), itfSource, color);
@@ -206,39 +788,142 @@ public class DumpDotGenerator {
 	 */
 	public Definition generateDot(Definition definition, final Map<Object, Object> baseContext, Map<Object, Object> headContext)
 					throws ADLException {
+		// contexts should contain the same output dir
+		return generateDot(definition, baseContext, headContext, (File) baseContext.get(BasicOutputFileLocator.OUTPUT_DIR_CONTEXT_KEY));
+	}
+
+	/**
+	 * Same as generateDot(Definition, Map, Map), in the given directory instead of the output directory of the contexts.
+	 */
+	public Definition generateDot(Definition definition, final Map<Object, Object> baseContext, Map<Object, Object> headContext, File outputDir)
+					throws ADLException {
 		this.baseContext = baseContext;
 		this.headContext = headContext;
 
-		Launcher.logger.info("MindDiff Graph generator: Start creating .gv files...");
+		Launcher.logger.info("MindDiff Graph generator: Start creating " + getFileExtension() + " files...");
 		
-		String topLevelName = "TopLevel"; //FIXME get the executable name.
+		buildDir = outputDir.getPath() +  File.separator;
 
-		// contexts should contain the same output dir
-		buildDir = ((File) baseContext.get(BasicOutputFileLocator.OUTPUT_DIR_CONTEXT_KEY)).getPath() +  File.separator;
+		failures.clear();
+		cacheUpdates.clear();
+		cachedInstances.clear();
 
-		// Get instance from the injector so its @Inject fields get properly injected (ADL Loader especially)
-		DotWriter topDot = injector.getInstance(DotWriter.class);
-		topDot.init(buildDir, topLevelName, null, baseContext, headContext);
+		if (isUpToDate(definition, definition, topLevelName)) {
+			Launcher.logger.info("Graph generator: Finished (" + getFileExtension() + " files are up-to-date).");
+			return null;
+		}
 
-		showInterfaces(definition, topDot);
-		
-		/*
-		 * With Mind-Diff, a definition can be both kinds of nodes.
-		 * - If Primitive became a Composite,
-		 * - Or Composite became a Primitive
-		 */
-		
-		if (ASTHelper.isComposite(definition))
-			showComposite(definition, topLevelName, topDot);
-		
-		if (ASTHelper.isPrimitive(definition))
-			showPrimitive(definition, topLevelName, topDot);
-		
-		topDot.close();
+		if (bundleFile != null)
+			try {
+				bundle = new GraphBundle(bundleFile);
+			} catch (IOException e) {
+				failures.add(bundleFile + ": " + e);
+				Launcher.logger.severe("Could not generate graph for " + bundleFile + ": " + e);
+				return null;
+			}
+
+		if (deduplicate) {
+			generateDeduplicatedDot(definition, topLevelName);
+			return null;
+		}
+
+		if (parallelism > 1)
+			executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(parallelism * PENDING_FILES_PER_THREAD),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+
+		try {
+			writeInstance(definition, topLevelName, null, DiffHelper.NOT_INHERITED);
+
+			if (ASTHelper.isComposite(definition))
+				showSubComponents(definition, topLevelName, DiffHelper.NOT_INHERITED);
+
+			recordCacheUpdate(definition, topLevelName, getInstancePath(topLevelName));
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+				try {
+					while (!executor.awaitTermination(1, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					failures.add("Interrupted while waiting for the .gv files to be written");
+				}
+				executor = null;
+			}
+			closeBundle();
+		}
+
+		for (String failure : failures)
+			Launcher.logger.severe("Could not generate graph for " + failure);
+
+		updateCache();
 		
 		Launcher.logger.info("Graph generator: Finished.");
 		
 		return null;
 	}
 
+	/**
+	 * Deduplicated generation: the sub-components files are written first, then the top-level file links to them.
+	 * It is sequential, most definitions being only rendered in memory to find out their file already exists.
+	 */
+	private void generateDeduplicatedDot(Definition definition, String topLevelName) {
+		baseFileNames.clear();
+		addedFileNames.clear();
+		headFileNames.clear();
+
+		try {
+			String[] subComponentFiles = null;
+			if (ASTHelper.isComposite(definition))
+				subComponentFiles = showDeduplicatedSubComponents(definition, topLevelName, DiffHelper.NOT_INHERITED);
+
+			GraphWriter topDot = newGraphWriter();
+			StringWriter content = initGraphWriter(topDot, topLevelName, null);
+
+			showInterfaces(definition, topDot, DiffHelper.NOT_INHERITED);
+			if (ASTHelper.isComposite(definition))
+				showComposite(definition, topLevelName, topDot, getInstancePath(topLevelName), subComponentFiles, DiffHelper.NOT_INHERITED);
+			if (ASTHelper.isPrimitive(definition))
+				showPrimitive(definition, topLevelName, topDot);
+			topDot.close();
+			addToBundle(topLevelName, content);
+			if (statistics != null)
+				statistics.increment(DiffStatistics.FILES_WRITTEN);
+
+			recordCacheUpdate(definition, topLevelName, getInstancePath(topLevelName));
+		} catch (final Exception e) {
+			failures.add(topLevelName + ": " + e);
+			Launcher.logger.log(Level.FINE, "Could not generate graph of " + topLevelName, e);
+		}
+
+		closeBundle();
+
+		for (String failure : failures)
+			Launcher.logger.severe("Could not generate graph for " + failure);
+
+		updateCache();
+
+		Launcher.logger.info("Graph generator: Finished (" + (baseFileNames.size() + addedFileNames.size() + headFileNames.size()) + " distinct definitions).");
+
+		// the rendered definitions belong to this generation
+		baseFileNames.clear();
+		addedFileNames.clear();
+		headFileNames.clear();
+	}
+
+	/**
+	 * A generated sub-tree, to be recorded in the diff cache
+	 */
+	private static final class CacheUpdate {
+		final String instanceName;
+		final String key;
+		final String fileName;
+
+		CacheUpdate(String instanceName, String key, String fileName) {
+			this.instanceName = instanceName;
+			this.key = key;
+			this.fileName = fileName;
+		}
+	}
+
 }
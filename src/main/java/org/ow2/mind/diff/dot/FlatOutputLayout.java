@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+
+package org.ow2.mind.diff.dot;
+
+/**
+ * All the files in the output directory, named after the full instance path (e.g. "TopLevel.comm.stack.gv")
+ * or after the hash of their content.
+ */
+public class FlatOutputLayout implements OutputLayout {
+
+	public String getInstancePath(String instanceName, String extension) {
+		return instanceName + extension;
+	}
+
+	public String getContentPath(String hash, String extension) {
+		return hash + extension;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.dot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zip archive holding all the graph files of a diff, instead of loose files in the output directory.
+ *
+ * Entries are compressed and appended one after the other, by any thread; the central directory
+ * written at the end indexes them by name, i.e. by the name of the loose file (instance path and extension).
+ * Links between graphs are relative file names, which resolve to the entries of the same archive.
+ *
+ * The archive is written to a temporary file, which only replaces the previous archive once complete.
+ */
+public class GraphBundle {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final File tmpFile;
+	private final ZipOutputStream zip;
+
+	/**
+	 * Names of the entries already written
+	 */
+	private final Set<String> names = new HashSet<String>();
+
+	/**
+	 * @param file the archive to write, replaced when closed
+	 * @throws IOException when the temporary file can not be created
+	 */
+	public GraphBundle(File file) throws IOException {
+		this.file = file;
+		this.tmpFile = new File(file.getPath() + ".tmp");
+		zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), OUTPUT_BUFFER_SIZE));
+		zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param name the name of the entry, as the name of the loose file
+	 * @param content the content of the entry
+	 * @return false when there already was an entry of this name, which is not replaced
+	 */
+	public synchronized boolean addEntry(String name, String content) throws IOException {
+		if (!names.add(name))
+			return false;
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(CHARSET));
+		zip.closeEntry();
+		return true;
+	}
+
+	/**
+	 * @return the number of entries written so far
+	 */
+	public synchronized int size() {
+		return names.size();
+	}
+
+	/**
+	 * Write the central directory, and replace the previous archive.
+	 * @throws IOException when the archive could not be completed: the previous archive is then kept
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			zip.close();
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file);
+		if (!tmpFile.renameTo(file))
+			throw new IOException("Could not rename " + tmpFile + " to " + file);
+	}
+
+	public File getFile() {
+		return file;
+	}
+}
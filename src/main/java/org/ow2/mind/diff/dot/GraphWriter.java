@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.dot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.ow2.mind.adl.ast.Binding;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.Source;
+
+/**
+ * Writer of the graph of a single instance: its membrane, server and client interfaces,
+ * sub-components, bindings and sources.
+ *
+ * Implementations are obtained from the injector, so that their @Inject fields get injected,
+ * and are used once: init, then the add* methods, then close.
+ */
+public interface GraphWriter {
+
+	/**
+	 * @return the extension of the written files, e.g. ".gv"
+	 */
+	String getFileExtension();
+
+	/**
+	 * @param loaderLock the lock to hold when using the loader and the implementation locator
+	 */
+	void setLoaderLock(Object loaderLock);
+
+	/**
+	 * @param inheritedStatus the status inherited from the enclosing components (see DiffHelper.getInheritedStatus),
+	 * to be set before init
+	 */
+	void setInheritedStatus(int inheritedStatus);
+
+	/**
+	 * Initialize the writer with the associated instance info, the graph being written to
+	 * the file named after the instance (with the file extension) in the given directory.
+	 * @param dir the build directory for the output file
+	 * @param name the full instance name (path in the instance diagram)
+	 * @param component the component of the instance, null for the top-level
+	 * @throws IOException when the output file can not be created
+	 */
+	void init(String dir, String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext) throws IOException;
+
+	/**
+	 * Initialize the writer with the associated instance info, the graph being written to the given output.
+	 * @param name the full instance name (path in the instance diagram)
+	 * @param component the component of the instance, null for the top-level
+	 * @param out where to write the graph, closed with the writer
+	 */
+	void init(String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext, Writer out);
+
+	/**
+	 * Add a contained sub-component, linked to the file of its instance
+	 * @param component the sub-component
+	 */
+	void addSubComponent(Component component);
+
+	/**
+	 * Add a contained sub-component
+	 * @param component the sub-component
+	 * @param url the file of the sub-component graph, null if there is none
+	 */
+	void addSubComponent(Component component, String url);
+
+	void addBinding(Binding binding);
+
+	void addSource(Source source);
+
+	/**
+	 * @param itfName the name of the interface instance (as on the "provides" line in ADL)
+	 * @param itfURI the source file path for the .itf file, null for no link
+	 * @param color the graphviz (X11) name of the status color
+	 */
+	void addServer(String itfName, String itfURI, String color);
+
+	/**
+	 * @param itfName the name of the interface instance (as on the "requires" line in ADL)
+	 * @param itfURI the source file path for the .itf file, null for no link
+	 * @param color the graphviz (X11) name of the status color
+	 */
+	void addClient(String itfName, String itfURI, String color);
+
+	/**
+	 * Write the end of the graph, and close the output.
+	 */
+	void close();
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+
+package org.ow2.mind.diff.dot;
+
+/**
+ * Location of the graph files in the output directory.
+ *
+ * Paths are relative to the output directory, with '/' separators, so that they can be used both
+ * as links between graphs and as names of bundle entries (see GraphBundle).
+ */
+public interface OutputLayout {
+
+	/**
+	 * @param instanceName the full instance name, starting with the top-level name (e.g. "TopLevel.comm.stack")
+	 * @param extension the extension of the file, e.g. ".gv"
+	 * @return the path of the file of the instance
+	 */
+	String getInstancePath(String instanceName, String extension);
+
+	/**
+	 * Content-addressed files (deduplicated generation) link to each other before their own path is known:
+	 * they must all be at the same depth.
+	 * @param hash the hash of the content of the file
+	 * @param extension the extension of the file, e.g. ".gv"
+	 * @return the path of the content-addressed file
+	 */
+	String getContentPath(String hash, String extension);
+}
@@ -0,0 +1,749 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.dot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import org.objectweb.fractal.adl.ADLException;
+import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.interfaces.Interface;
+import org.objectweb.fractal.adl.interfaces.InterfaceContainer;
+import org.objectweb.fractal.adl.types.TypeInterface;
+import org.ow2.mind.adl.ast.ASTHelper;
+import org.ow2.mind.adl.ast.Binding;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.MindInterface;
+import org.ow2.mind.adl.ast.Source;
+import org.ow2.mind.adl.implementation.ImplementationLocator;
+import org.ow2.mind.diff.DiffHelper;
+import org.ow2.mind.diff.Launcher;
+
+import com.google.inject.Inject;
+
+/**
+ * Renders the graph of an instance directly as SVG, without running graphviz on a .gv file.
+ *
+ * The graphs of DotWriter always have the same shape: a membrane around the server interfaces (first rank),
+ * the sub-components, the sources, and the client interfaces (last rank), the bindings joining the interfaces.
+ * The elements are collected, then laid out in columns from left to right: the sub-components are layered
+ * by the longest path of bindings leading to them (the bindings closing a cycle being ignored), and each
+ * column is ordered by the mean position of the elements bound to it in the previous columns, to limit crossings.
+ *
+ * Links are the same as in the graphviz output: ADL file on the membrane, sub-component graphs
+ * (.svg files), interface and source files.
+ */
+public class SvgWriter implements GraphWriter {
+
+	/**
+	 * Extension of the SVG files
+	 */
+	public static final String FILE_EXTENSION = ".svg";
+
+	private static final Charset SVG_CHARSET = Charset.forName("UTF-8");
+	/**
+	 * Size of the output buffer: the file is only flushed when it is closed, unless it is bigger
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	// geometry, in pixels
+	private static final int FONT_SIZE = 14;
+	/**
+	 * Mean width of a character: texts are not measured
+	 */
+	private static final int CHAR_WIDTH = 8;
+	private static final int ROW_HEIGHT = 24;
+	private static final int PADDING = 10;
+	private static final int INTERFACE_HEIGHT = 48;
+	private static final int MIN_INTERFACE_WIDTH = 80;
+	private static final int SOURCE_HEIGHT = 40;
+	/**
+	 * Space between the elements of a column, and between the columns
+	 */
+	private static final int NODE_SEP = 20;
+	private static final int RANK_SEP = 160;
+	private static final int MEMBRANE_MARGIN = 40;
+	private static final int MEMBRANE_WIDTH = 15;
+
+	/**
+	 * SVG values of the graphviz (X11) colors of DotWriter and DumpDotGenerator
+	 */
+	private static final Map<String, String> COLORS = new HashMap<String, String>();
+	static {
+		COLORS.put("black", "#000000");
+		COLORS.put("blue", "#0000ff");
+		COLORS.put("red3", "#cd0000");
+		COLORS.put("chartreuse3", "#66cd00");
+		COLORS.put("darkgoldenrod2", "#eead0e");
+		COLORS.put("firebrick2", "#ee2c2c");
+		COLORS.put("palegreen", "#98fb98");
+		COLORS.put("lightgrey", "#d3d3d3");
+	}
+
+	/**
+	 * Colors of the unchanged, new and old bindings (colors 9, 3 and 1 of the graphviz "set19" scheme)
+	 */
+	private static final String[] EDGE_COLORS = { "#999999", "#4daf4a", "#e41a1c" };
+	private static final int UNCHANGED_EDGE = 0;
+	private static final int NEW_EDGE = 1;
+	private static final int OLD_EDGE = 2;
+
+	/**
+	 * The output, written at once when the writer is closed
+	 */
+	private PrintWriter currentPrinter;
+	/**
+	 * The instance name of this component :
+	 * containing all levels of composite from the top level component
+	 */
+	private String compName;
+	/**
+	 * The instance name of this component :
+	 * as stated on the "contains" line in ADL
+	 */
+	private String localName;
+	/**
+	 * The ADL file of the component, null if unknown
+	 */
+	private String adlSource;
+
+	private Map<Object, Object> baseContext;
+	private Map<Object, Object> headContext;
+
+	@Inject
+	public ImplementationLocator implementationLocatorItf;
+
+	@Inject
+	Loader adlLoaderItf;
+
+	/**
+	 * Lock serializing the loader and locator accesses, shared by the writers
+	 * generated in parallel
+	 */
+	private Object loaderLock = this;
+
+	/**
+	 * Status inherited by all the nodes of the instance, when it belongs to an old or new sub-tree
+	 */
+	private int inheritedStatus = DiffHelper.NOT_INHERITED;
+
+	private final List<Box> servers = new ArrayList<Box>();
+	private final List<Box> clients = new ArrayList<Box>();
+	private final List<Box> subComponents = new ArrayList<Box>();
+	private final List<Box> sources = new ArrayList<Box>();
+	private final Map<String, Box> serversByName = new HashMap<String, Box>();
+	private final Map<String, Box> clientsByName = new HashMap<String, Box>();
+	private final Map<String, Box> subComponentsByName = new HashMap<String, Box>();
+	private final List<Edge> edges = new ArrayList<Edge>();
+
+	/**
+	 * Size of the whole picture, membrane included
+	 */
+	private int width;
+	private int height;
+
+	public String getFileExtension() {
+		return FILE_EXTENSION;
+	}
+
+	public void setLoaderLock(Object loaderLock) {
+		this.loaderLock = loaderLock;
+	}
+
+	public void setInheritedStatus(int inheritedStatus) {
+		this.inheritedStatus = inheritedStatus;
+	}
+
+	public void init(String dir, String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext) throws IOException {
+		String fileName = dir + File.separator + name + FILE_EXTENSION;
+		init(name, component, baseContext, headContext,
+				new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), SVG_CHARSET), OUTPUT_BUFFER_SIZE));
+	}
+
+	public void init(String name, Component component, Map<Object, Object> baseContext, Map<Object, Object> headContext, Writer out) {
+		this.baseContext = baseContext;
+		this.headContext = headContext;
+
+		compName = name;
+		localName = name.substring(name.lastIndexOf('.') + 1);
+		currentPrinter = new PrintWriter(out);
+
+		if (component == null)
+			return;
+
+		// the instance itself may be the root of an old or new sub-tree
+		inheritedStatus = DiffHelper.getInheritedStatus(component, inheritedStatus);
+		try {
+			synchronized (loaderLock) {
+				if (inheritedStatus == DiffHelper.INHERITED_OLD)
+					adlSource = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, baseContext).astGetSource();
+				else
+					adlSource = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, headContext).astGetSource();
+			}
+			if (adlSource != null)
+				adlSource = DotWriter.getSourcePath(adlSource);
+		} catch (ADLException e) {
+			Launcher.logger.log(Level.FINE, "Could not find the ADL file of " + name, e);
+		}
+	}
+
+	public void addSubComponent(Component component) {
+		addSubComponent(component, compName + "." + component.getName() + FILE_EXTENSION);
+	}
+
+	public void addSubComponent(Component component, String url) {
+		// single lookup of all the flags of the component
+		int status = inheritedStatus | DiffHelper.getStatus(component);
+		Box box = new Box(component.getName(), url, getStatusColor(status), COLORS.get("lightgrey"));
+
+		try {
+			Definition definition;
+			synchronized (loaderLock) {
+				if ((status & DiffHelper.OLD) != 0)
+					definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, baseContext);
+				else
+					// if new or changed or no change, use the new info
+					definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, headContext);
+			}
+
+			if (definition instanceof InterfaceContainer) {
+				TreeSet<MindInterface> interfaces = new TreeSet<MindInterface>(new MindInterfaceComparator());
+				for (Interface itf : ((InterfaceContainer) definition).getInterfaces())
+					interfaces.add((MindInterface) itf);
+
+				// interfaces of an old or new sub-component are old or new as well
+				int inheritedItfStatus = status & (DiffHelper.OLD | DiffHelper.NEW);
+				for (MindInterface itf : interfaces) {
+					int itfStatus = inheritedItfStatus | DiffHelper.getStatus(itf);
+					// same markers as the graphviz records, which can not be colored
+					String marker = getStatusMarker(itfStatus);
+					if (itf.getRole().equals(TypeInterface.SERVER_ROLE))
+						box.serverPorts.add(new Port(itf.getName(), marker == null ? itf.getName() : marker + " " + itf.getName(), getStatusColor(itfStatus)));
+					else if (itf.getRole().equals(TypeInterface.CLIENT_ROLE))
+						box.clientPorts.add(new Port(itf.getName(), marker == null ? itf.getName() : itf.getName() + " " + marker, getStatusColor(itfStatus)));
+				}
+			}
+		} catch (final ADLException e) {
+			// still drawn, without its interfaces
+			Launcher.logger.log(Level.WARNING, "Could not resolve the definition of " + compName + "." + component.getName(), e);
+		}
+
+		box.setComponentSize();
+		subComponents.add(box);
+		subComponentsByName.put(component.getName(), box);
+	}
+
+	public void addBinding(Binding binding) {
+		int status = inheritedStatus | DiffHelper.getStatus(binding);
+		int color = UNCHANGED_EDGE;
+		if ((status & DiffHelper.NEW) != 0)
+			color = NEW_EDGE;
+		else if ((status & DiffHelper.OLD) != 0)
+			color = OLD_EDGE;
+
+		// the ends are resolved when closing, all the elements being known
+		edges.add(new Edge(binding.getFromComponent(), binding.getFromInterface(), binding.getToComponent(), binding.getToInterface(), color));
+	}
+
+	public void addSource(Source source) {
+		String srcPath = source.getPath();
+		if (srcPath == null)
+			return;
+
+		URL url = null;
+		int status = inheritedStatus | DiffHelper.getStatus(source);
+		synchronized (loaderLock) {
+			if ((status & DiffHelper.OLD) != 0)
+				url = implementationLocatorItf.findSource(srcPath, baseContext);
+			else
+				// if new or changed or not changed, load from latest context
+				url = implementationLocatorItf.findSource(srcPath, headContext);
+		}
+
+		// no link when the source file can not be found, or is read from a git revision
+		Box box = new Box(srcPath, DotWriter.getLinkPath(url), getStatusColor(status), "#ffffff");
+		box.width = srcPath.length() * CHAR_WIDTH + 3 * PADDING;
+		box.height = SOURCE_HEIGHT;
+		sources.add(box);
+	}
+
+	public void addServer(String itfName, String itfURI, String color) {
+		Box box = newInterfaceBox(itfName, itfURI, color, COLORS.get("firebrick2"));
+		servers.add(box);
+		serversByName.put(itfName, box);
+	}
+
+	public void addClient(String itfName, String itfURI, String color) {
+		Box box = newInterfaceBox(itfName, itfURI, color, COLORS.get("palegreen"));
+		clients.add(box);
+		clientsByName.put(itfName, box);
+	}
+
+	public void close() {
+		resolveEdges();
+		layout(getColumns());
+		writeSvg();
+		// single flush for the whole file
+		currentPrinter.close();
+	}
+
+	private static Box newInterfaceBox(String itfName, String itfURI, String color, String fill) {
+		String svgColor = COLORS.get(color);
+		Box box = new Box(itfName, itfURI, svgColor != null ? svgColor : color, fill);
+		box.width = Math.max(MIN_INTERFACE_WIDTH, itfName.length() * CHAR_WIDTH + 2 * PADDING);
+		box.height = INTERFACE_HEIGHT;
+		return box;
+	}
+
+	/**
+	 * @return the SVG value of the status color, as chosen by DotWriter
+	 */
+	private static String getStatusColor(int status) {
+		if ((status & DiffHelper.OLD) != 0)
+			return COLORS.get("red3");
+		if ((status & DiffHelper.NEW) != 0)
+			return COLORS.get("chartreuse3");
+		if ((status & DiffHelper.CHANGED) != 0)
+			return COLORS.get("darkgoldenrod2");
+		return COLORS.get("black");
+	}
+
+	/**
+	 * @return "++", "--" or "<>" for a new, old or changed interface, null otherwise
+	 */
+	private static String getStatusMarker(int status) {
+		if ((status & DiffHelper.NEW) != 0)
+			return "++";
+		if ((status & DiffHelper.OLD) != 0)
+			return "--";
+		if ((status & DiffHelper.CHANGED) != 0)
+			return "<>";
+		return null;
+	}
+
+	/**
+	 * Find the elements at both ends of the bindings, dropping the bindings of unknown elements
+	 */
+	private void resolveEdges() {
+		for (Iterator<Edge> it = edges.iterator(); it.hasNext();) {
+			Edge edge = it.next();
+			if (edge.fromComponent.equals("this"))
+				edge.from = serversByName.get(edge.fromInterface);
+			else {
+				edge.from = subComponentsByName.get(edge.fromComponent);
+				edge.fromPort = edge.from == null ? null : edge.from.getPort(edge.from.clientPorts, edge.fromInterface);
+			}
+
+			if (edge.toComponent.equals("this"))
+				edge.to = clientsByName.get(edge.toInterface);
+			else {
+				edge.to = subComponentsByName.get(edge.toComponent);
+				edge.toPort = edge.to == null ? null : edge.to.getPort(edge.to.serverPorts, edge.toInterface);
+			}
+
+			if (edge.from == null || edge.to == null)
+				it.remove();
+		}
+	}
+
+	/**
+	 * @return the elements in columns, from left to right: server interfaces, layers of sub-components,
+	 * sources, client interfaces; each column being ordered
+	 */
+	private List<List<Box>> getColumns() {
+		List<List<Box>> columns = new ArrayList<List<Box>>();
+		if (!servers.isEmpty())
+			columns.add(servers);
+		columns.addAll(getLayers());
+		if (!sources.isEmpty())
+			columns.add(sources);
+		if (!clients.isEmpty())
+			columns.add(clients);
+
+		// every element must know its column before any ordering, edges from the following columns being ignored
+		for (int c = 0; c < columns.size(); c++) {
+			List<Box> column = columns.get(c);
+			for (int i = 0; i < column.size(); i++) {
+				column.get(i).column = c;
+				column.get(i).order = i;
+			}
+		}
+		// the previous columns are ordered already
+		for (int c = 0; c < columns.size(); c++)
+			if (columns.get(c) != servers)
+				orderByPredecessors(columns.get(c), c);
+		return columns;
+	}
+
+	/**
+	 * Longest path layering of the sub-components, along the bindings between them.
+	 * A depth-first search gives a topological order of the sub-components, the bindings to a sub-component
+	 * visited later in this order closing a cycle.
+	 * @return the layers, in the order the sub-components were added in each layer
+	 */
+	private List<List<Box>> getLayers() {
+		Map<Box, List<Box>> successors = new IdentityHashMap<Box, List<Box>>();
+		for (Box box : subComponents)
+			successors.put(box, new ArrayList<Box>());
+		for (Edge edge : edges)
+			if (edge.from != edge.to && successors.containsKey(edge.from) && successors.containsKey(edge.to))
+				successors.get(edge.from).add(edge.to);
+
+		List<Box> postOrder = new ArrayList<Box>();
+		Set<Box> visited = Collections.newSetFromMap(new IdentityHashMap<Box, Boolean>());
+		for (Box box : subComponents)
+			visit(box, successors, visited, postOrder);
+
+		for (int i = postOrder.size() - 1; i >= 0; i--) {
+			Box box = postOrder.get(i);
+			for (Box successor : successors.get(box))
+				if (successor.postOrder < box.postOrder)
+					successor.layer = Math.max(successor.layer, box.layer + 1);
+		}
+
+		List<List<Box>> layers = new ArrayList<List<Box>>();
+		for (Box box : subComponents) {
+			while (layers.size() <= box.layer)
+				layers.add(new ArrayList<Box>());
+			layers.get(box.layer).add(box);
+		}
+		return layers;
+	}
+
+	private static void visit(Box box, Map<Box, List<Box>> successors, Set<Box> visited, List<Box> postOrder) {
+		if (!visited.add(box))
+			return;
+		for (Box successor : successors.get(box))
+			visit(successor, successors, visited, postOrder);
+		box.postOrder = postOrder.size();
+		postOrder.add(box);
+	}
+
+	/**
+	 * Sort a column by the mean position of the elements bound to it in the previous columns,
+	 * the elements without any keeping their position
+	 */
+	private void orderByPredecessors(List<Box> column, int c) {
+		for (Box box : column) {
+			box.barycenter = 0;
+			box.predecessors = 0;
+		}
+		for (Edge edge : edges)
+			if (edge.to.column == c && edge.from.column >= 0 && edge.from.column < c) {
+				edge.to.barycenter += edge.from.order;
+				edge.to.predecessors++;
+			}
+		for (Box box : column)
+			box.barycenter = box.predecessors == 0 ? box.order : box.barycenter / box.predecessors;
+		Collections.sort(column, new Comparator<Box>() {
+			public int compare(Box box1, Box box2) {
+				return Double.compare(box1.barycenter, box2.barycenter);
+			}
+		});
+		for (int i = 0; i < column.size(); i++)
+			column.get(i).order = i;
+	}
+
+	/**
+	 * Position the elements: columns are centered vertically in the membrane, elements horizontally in their column
+	 */
+	private void layout(List<List<Box>> columns) {
+		int[] columnWidths = new int[columns.size()];
+		int[] columnHeights = new int[columns.size()];
+		int contentHeight = 0;
+		for (int c = 0; c < columns.size(); c++) {
+			for (Box box : columns.get(c)) {
+				columnWidths[c] = Math.max(columnWidths[c], box.width);
+				columnHeights[c] += box.height;
+			}
+			columnHeights[c] += NODE_SEP * (columns.get(c).size() - 1);
+			contentHeight = Math.max(contentHeight, columnHeights[c]);
+		}
+
+		int top = MEMBRANE_WIDTH + MEMBRANE_MARGIN;
+		int x = top;
+		for (int c = 0; c < columns.size(); c++) {
+			int y = top + (contentHeight - columnHeights[c]) / 2;
+			for (Box box : columns.get(c)) {
+				box.x = x + (columnWidths[c] - box.width) / 2;
+				box.y = y;
+				y += box.height + NODE_SEP;
+			}
+			x += columnWidths[c] + (c + 1 < columns.size() ? RANK_SEP : 0);
+		}
+
+		width = x + MEMBRANE_MARGIN + MEMBRANE_WIDTH;
+		height = top + contentHeight + MEMBRANE_MARGIN + MEMBRANE_WIDTH;
+	}
+
+	private void writeSvg() {
+		PrintWriter out = currentPrinter;
+		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+		out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width
+				+ "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height + "\">");
+		out.println("<title>" + escape(localName) + "</title>");
+
+		out.println("<defs>");
+		for (int i = 0; i < EDGE_COLORS.length; i++)
+			out.println("<marker id=\"arrow" + i + "\" viewBox=\"0 0 10 10\" refX=\"10\" refY=\"5\" markerWidth=\"6\" markerHeight=\"6\" orient=\"auto\">"
+					+ "<path d=\"M 0 0 L 10 5 L 0 10 z\" fill=\"" + EDGE_COLORS[i] + "\"/></marker>");
+		out.println("</defs>");
+		out.println("<g font-family=\"Helvetica,Arial,sans-serif\" font-size=\"" + FONT_SIZE + "\">");
+
+		// membrane
+		int half = MEMBRANE_WIDTH / 2;
+		openLink(out, adlSource);
+		out.println("<rect x=\"" + half + "\" y=\"" + half + "\" width=\"" + (width - MEMBRANE_WIDTH) + "\" height=\"" + (height - MEMBRANE_WIDTH)
+				+ "\" rx=\"" + 2 * MEMBRANE_MARGIN / 3 + "\" fill=\"none\" stroke=\"" + COLORS.get("blue") + "\" stroke-width=\"" + MEMBRANE_WIDTH + "\"/>");
+		closeLink(out, adlSource);
+
+		for (Edge edge : edges)
+			writeEdge(out, edge);
+		for (Box box : servers)
+			writeInterface(out, box);
+		for (Box box : subComponents)
+			writeSubComponent(out, box);
+		for (Box box : sources)
+			writeSource(out, box);
+		for (Box box : clients)
+			writeInterface(out, box);
+
+		out.println("</g>");
+		out.println("</svg>");
+	}
+
+	private static void writeEdge(PrintWriter out, Edge edge) {
+		int x1 = edge.from.x + edge.from.width;
+		int y1 = edge.fromPort != null ? edge.from.y + edge.fromPort.y : edge.from.y + edge.from.height / 2;
+		int x2 = edge.to.x;
+		int y2 = edge.toPort != null ? edge.to.y + edge.toPort.y : edge.to.y + edge.to.height / 2;
+		int d = Math.max(RANK_SEP / 4, Math.abs(x2 - x1) / 2);
+		out.println("<path d=\"M " + x1 + " " + y1 + " C " + (x1 + d) + " " + y1 + " " + (x2 - d) + " " + y2 + " " + x2 + " " + y2
+				+ "\" fill=\"none\" stroke=\"" + EDGE_COLORS[edge.color] + "\" stroke-width=\"1.5\" marker-end=\"url(#arrow" + edge.color + ")\"/>");
+	}
+
+	private static void writeInterface(PrintWriter out, Box box) {
+		openLink(out, box.url);
+		out.println("<rect x=\"" + box.x + "\" y=\"" + box.y + "\" width=\"" + box.width + "\" height=\"" + box.height
+				+ "\" fill=\"" + box.fill + "\" stroke=\"" + box.color + "\" stroke-width=\"2\"/>");
+		writeText(out, box.x + box.width / 2, box.y + box.height / 2, "middle", box.label, null);
+		closeLink(out, box.url);
+	}
+
+	private static void writeSubComponent(PrintWriter out, Box box) {
+		openLink(out, box.url);
+		out.println("<rect x=\"" + box.x + "\" y=\"" + box.y + "\" width=\"" + box.width + "\" height=\"" + box.height
+				+ "\" rx=\"" + PADDING + "\" fill=\"" + box.fill + "\" stroke=\"" + box.color + "\" stroke-width=\"2\"/>");
+		writeText(out, box.x + box.width / 2, box.y + ROW_HEIGHT / 2 + PADDING / 2, "middle", box.label, null);
+		out.println("<line x1=\"" + box.x + "\" y1=\"" + (box.y + ROW_HEIGHT + PADDING) + "\" x2=\"" + (box.x + box.width) + "\" y2=\""
+				+ (box.y + ROW_HEIGHT + PADDING) + "\" stroke=\"" + box.color + "\"/>");
+		for (Port port : box.serverPorts)
+			writeText(out, box.x + PADDING, box.y + port.y, "start", port.label, port.color);
+		for (Port port : box.clientPorts)
+			writeText(out, box.x + box.width - PADDING, box.y + port.y, "end", port.label, port.color);
+		closeLink(out, box.url);
+	}
+
+	private static void writeSource(PrintWriter out, Box box) {
+		int fold = PADDING;
+		int right = box.x + box.width;
+		int bottom = box.y + box.height;
+		openLink(out, box.url);
+		out.println("<polygon points=\"" + box.x + "," + box.y + " " + (right - fold) + "," + box.y + " " + right + "," + (box.y + fold) + " "
+				+ right + "," + bottom + " " + box.x + "," + bottom + "\" fill=\"" + box.fill + "\" stroke=\"" + box.color + "\" stroke-width=\"2\"/>");
+		out.println("<polyline points=\"" + (right - fold) + "," + box.y + " " + (right - fold) + "," + (box.y + fold) + " " + right + "," + (box.y + fold)
+				+ "\" fill=\"none\" stroke=\"" + box.color + "\"/>");
+		writeText(out, box.x + (box.width - fold) / 2, box.y + box.height / 2, "middle", box.label, null);
+		closeLink(out, box.url);
+	}
+
+	/**
+	 * @param y the middle of the text line
+	 * @param color null for the default (black)
+	 */
+	private static void writeText(PrintWriter out, int x, int y, String anchor, String text, String color) {
+		out.println("<text x=\"" + x + "\" y=\"" + (y + FONT_SIZE / 3) + "\" text-anchor=\"" + anchor + "\""
+				+ (color != null ? " fill=\"" + color + "\"" : "") + ">" + escape(text) + "</text>");
+	}
+
+	private static void openLink(PrintWriter out, String url) {
+		if (url != null)
+			out.println("<a xlink:href=\"" + escape(url) + "\">");
+	}
+
+	private static void closeLink(PrintWriter out, String url) {
+		if (url != null)
+			out.println("</a>");
+	}
+
+	private static String escape(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * An element of the graph: interface, sub-component or source
+	 */
+	private static final class Box {
+		final String label;
+		final String url;
+		/** SVG colors of the border and of the background */
+		final String color;
+		final String fill;
+		/** Ports of a sub-component */
+		final List<Port> serverPorts = new ArrayList<Port>();
+		final List<Port> clientPorts = new ArrayList<Port>();
+
+		int width;
+		int height;
+		int x;
+		int y;
+
+		/** Layer of a sub-component, and position in the depth-first search */
+		int layer = 0;
+		int postOrder;
+		/** Column, and position in the column (-1 until the columns are built) */
+		int column = -1;
+		int order;
+		/** Mean position of the elements bound to this one in the previous columns */
+		double barycenter;
+		int predecessors;
+
+		Box(String label, String url, String color, String fill) {
+			this.label = label;
+			this.url = url;
+			this.color = color;
+			this.fill = fill;
+		}
+
+		/**
+		 * Size of a sub-component: its name, then its server ports on the left and its client ports on the right
+		 */
+		void setComponentSize() {
+			int serverWidth = 0;
+			int clientWidth = 0;
+			for (int i = 0; i < serverPorts.size(); i++) {
+				serverWidth = Math.max(serverWidth, serverPorts.get(i).label.length() * CHAR_WIDTH);
+				serverPorts.get(i).y = ROW_HEIGHT + PADDING + i * ROW_HEIGHT + ROW_HEIGHT / 2 + PADDING / 2;
+			}
+			for (int i = 0; i < clientPorts.size(); i++) {
+				clientWidth = Math.max(clientWidth, clientPorts.get(i).label.length() * CHAR_WIDTH);
+				clientPorts.get(i).y = ROW_HEIGHT + PADDING + i * ROW_HEIGHT + ROW_HEIGHT / 2 + PADDING / 2;
+			}
+			int rows = Math.max(1, Math.max(serverPorts.size(), clientPorts.size()));
+			width = Math.max(label.length() * CHAR_WIDTH, serverWidth + clientWidth + 2 * PADDING) + 2 * PADDING;
+			height = ROW_HEIGHT + PADDING + rows * ROW_HEIGHT + PADDING;
+		}
+
+		/**
+		 * @return the port of the given interface, null if unknown
+		 */
+		Port getPort(List<Port> ports, String name) {
+			for (Port port : ports)
+				if (port.name.equals(name))
+					return port;
+			return null;
+		}
+	}
+
+	/**
+	 * An interface of a sub-component
+	 */
+	private static final class Port {
+		final String name;
+		final String label;
+		final String color;
+		/** Middle of the port, from the top of the sub-component */
+		int y;
+
+		Port(String name, String label, String color) {
+			this.name = name;
+			this.label = label;
+			this.color = color;
+		}
+	}
+
+	/**
+	 * A binding, from a server interface or a sub-component client port,
+	 * to a sub-component server port or a client interface
+	 */
+	private static final class Edge {
+		final String fromComponent;
+		final String fromInterface;
+		final String toComponent;
+		final String toInterface;
+		/** UNCHANGED_EDGE, NEW_EDGE or OLD_EDGE */
+		final int color;
+
+		Box from;
+		Port fromPort;
+		Box to;
+		Port toPort;
+
+		Edge(String fromComponent, String fromInterface, String toComponent, String toInterface, int color) {
+			this.fromComponent = fromComponent;
+			this.fromInterface = fromInterface;
+			this.toComponent = toComponent;
+			this.toInterface = toInterface;
+			this.color = color;
+		}
+	}
+}
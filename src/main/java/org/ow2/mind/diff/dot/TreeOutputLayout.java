@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2014 Schneider Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+
+package org.ow2.mind.diff.dot;
+
+/**
+ * Directories mirroring the instance tree: the file of an instance is named after its local name,
+ * in the directory of its parent (e.g. "TopLevel/comm/stack.gv" for "TopLevel.comm.stack").
+ * A directory then holds as many files as its composite has sub-components, and file names stay short
+ * whatever the depth of the instance.
+ *
+ * Content-addressed files are spread over 256 buckets, named after the first two digits of their hash
+ * (e.g. "3f/3fa2...gv").
+ */
+public class TreeOutputLayout implements OutputLayout {
+
+	private static final int BUCKET_NAME_LENGTH = 2;
+
+	public String getInstancePath(String instanceName, String extension) {
+		// instance names are made of ADL identifiers, which hold neither '.' nor '/'
+		return instanceName.replace('.', '/') + extension;
+	}
+
+	public String getContentPath(String hash, String extension) {
+		return hash.substring(0, BUCKET_NAME_LENGTH) + "/" + hash + extension;
+	}
+}
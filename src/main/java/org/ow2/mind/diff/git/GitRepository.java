@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.git;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only access to the object database of a local git repository, through the git command.
+ *
+ * Trees are listed once per revision, and blobs are read through a single "git cat-file --batch"
+ * process shared by all revisions. Blobs are cached by object id: a file which is the same
+ * in several revisions is only read once. The cache is bounded in size, the least recently
+ * used blobs being evicted first.
+ */
+public class GitRepository {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final long DEFAULT_MAX_CACHED_BYTES = 64L * 1024 * 1024;
+
+	private final File repositoryDir;
+	private final String gitCommand;
+	private final long maxCachedBytes;
+
+	/** Blob contents by object id, in access order */
+	private final Map<String, byte[]> blobs = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+	/** Total size of the cached blob contents */
+	private long cachedBytes = 0;
+
+	/** The "cat-file --batch" process, started on first read */
+	private Process catFileProcess;
+	private OutputStream catFileRequests;
+	private InputStream catFileResponses;
+
+	/**
+	 * @param repositoryDir the work tree or git directory of the repository
+	 * @param gitCommand the git executable
+	 * @param maxCachedBytes the maximal total size of the cached blob contents
+	 */
+	public GitRepository(File repositoryDir, String gitCommand, long maxCachedBytes) {
+		this.repositoryDir = repositoryDir;
+		this.gitCommand = gitCommand;
+		this.maxCachedBytes = maxCachedBytes;
+	}
+
+	public GitRepository(File repositoryDir) {
+		this(repositoryDir, "git", DEFAULT_MAX_CACHED_BYTES);
+	}
+
+	public File getRepositoryDir() {
+		return repositoryDir;
+	}
+
+	/**
+	 * @param revision a revision (branch, tag, commit id...)
+	 * @return the commit id of the revision
+	 * @throws IOException when the revision does not exist
+	 */
+	public String resolveRevision(String revision) throws IOException {
+		return new String(runGit("rev-parse", "--verify", "--quiet", revision + "^{commit}"), UTF8).trim();
+	}
+
+	/**
+	 * @param revision a revision (branch, tag, commit id...)
+	 * @return the object ids of the blobs of the revision, by path relative to the repository root ('/' separated)
+	 * @throws IOException
+	 */
+	public Map<String, String> listBlobs(String revision) throws IOException {
+		byte[] output = runGit("ls-tree", "-r", "-z", "--full-tree", revision);
+
+		// entries are "<mode> SP <type> SP <object> TAB <path> NUL"
+		Map<String, String> tree = new HashMap<String, String>();
+		int start = 0;
+		for (int i = 0; i < output.length; i++) {
+			if (output[i] != 0)
+				continue;
+			String entry = new String(output, start, i - start, UTF8);
+			start = i + 1;
+
+			int tab = entry.indexOf('\t');
+			String[] fields = entry.substring(0, tab).split(" ");
+			if ("blob".equals(fields[1]))
+				tree.put(entry.substring(tab + 1), fields[2]);
+		}
+		return Collections.unmodifiableMap(tree);
+	}
+
+	/**
+	 * @param objectId the id of a blob
+	 * @return the content of the blob, read once while it stays in the cache
+	 * @throws IOException
+	 */
+	public byte[] readBlob(String objectId) throws IOException {
+		byte[] content;
+		synchronized (blobs) {
+			content = blobs.get(objectId);
+		}
+		if (content == null) {
+			content = catFile(objectId);
+			cacheBlob(objectId, content);
+		}
+		return content;
+	}
+
+	private void cacheBlob(String objectId, byte[] content) {
+		synchronized (blobs) {
+			byte[] previousContent = blobs.put(objectId, content);
+			cachedBytes += content.length - (previousContent != null ? previousContent.length : 0);
+
+			// evict the least recently used blobs, the new one being kept even if bigger than the bound
+			Iterator<byte[]> it = blobs.values().iterator();
+			while (cachedBytes > maxCachedBytes && blobs.size() > 1) {
+				cachedBytes -= it.next().length;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stop the "cat-file" process. It is restarted if blobs are read again.
+	 */
+	public synchronized void close() {
+		if (catFileProcess != null) {
+			try {
+				catFileRequests.close();
+				catFileProcess.waitFor();
+			} catch (IOException e) {
+				catFileProcess.destroy();
+			} catch (InterruptedException e) {
+				catFileProcess.destroy();
+				Thread.currentThread().interrupt();
+			}
+			catFileProcess = null;
+		}
+	}
+
+	private synchronized byte[] catFile(String objectId) throws IOException {
+		if (catFileProcess == null) {
+			catFileProcess = newGitProcess("cat-file", "--batch").start();
+			catFileRequests = catFileProcess.getOutputStream();
+			catFileResponses = new BufferedInputStream(catFileProcess.getInputStream());
+		}
+
+		catFileRequests.write((objectId + "\n").getBytes(UTF8));
+		catFileRequests.flush();
+
+		// response is "<object> SP <type> SP <size> LF <contents> LF", or "<object> SP missing LF"
+		String header = readLine(catFileResponses);
+		String[] fields = header.split(" ");
+		if (fields.length != 3)
+			throw new IOException("Could not read object " + objectId + " from " + repositoryDir + ": " + header);
+
+		int size = Integer.parseInt(fields[2]);
+		byte[] content = new byte[size];
+		int read = 0;
+		while (read < size) {
+			int count = catFileResponses.read(content, read, size - read);
+			if (count < 0)
+				throw new IOException("Unexpected end of object " + objectId + " from " + repositoryDir);
+			read += count;
+		}
+		// trailing LF
+		catFileResponses.read();
+
+		return content;
+	}
+
+	private static String readLine(InputStream is) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int c;
+		while ((c = is.read()) != '\n') {
+			if (c < 0)
+				throw new IOException("git cat-file stopped unexpectedly");
+			line.write(c);
+		}
+		return new String(line.toByteArray(), UTF8);
+	}
+
+	private byte[] runGit(String... args) throws IOException {
+		Process process = newGitProcess(args).start();
+		process.getOutputStream().close();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream is = process.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) >= 0)
+				output.write(buffer, 0, read);
+		} finally {
+			is.close();
+		}
+
+		try {
+			int exitCode = process.waitFor();
+			if (exitCode != 0)
+				throw new IOException("git " + args[0] + " failed in " + repositoryDir + " (exit code " + exitCode + ")");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running git " + args[0]);
+		}
+
+		return output.toByteArray();
+	}
+
+	private ProcessBuilder newGitProcess(String... args) {
+		List<String> command = new ArrayList<String>(args.length + 3);
+		command.add(gitCommand);
+		command.add("-C");
+		command.add(repositoryDir.getPath());
+		for (String arg : args)
+			command.add(arg);
+		return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source class loader of a context, serving the ADL, IDL and implementation files
+ * of a revision straight from the git object database, without any checkout.
+ *
+ * Resources are looked up in the given source directories of the revision (relative to the
+ * repository root), before the parent class loader (source path of the command line, compiler libraries):
+ * a file of the revision is never shadowed by a file of the same name on disk.
+ * Their URLs use the "mindgit" protocol, with the path in the repository as path.
+ */
+public class GitSourceClassLoader extends ClassLoader {
+
+	public static final String PROTOCOL = "mindgit";
+
+	private final GitRepository repository;
+	private final String revision;
+	private final List<String> srcDirs;
+
+	/** Blob ids of the revision, by path in the repository */
+	private final Map<String, String> blobs;
+
+	private final URLStreamHandler handler = new BlobURLStreamHandler();
+
+	/**
+	 * @param repository the repository
+	 * @param revision the revision to read
+	 * @param srcDirs the source directories, relative to the repository root ("" or "." for the root itself)
+	 * @param parent the parent class loader
+	 * @throws IOException when the revision can not be listed
+	 */
+	public GitSourceClassLoader(GitRepository repository, String revision, List<String> srcDirs, ClassLoader parent) throws IOException {
+		super(parent);
+		this.repository = repository;
+		this.revision = repository.resolveRevision(revision);
+		this.blobs = repository.listBlobs(this.revision);
+
+		this.srcDirs = new ArrayList<String>(srcDirs.size());
+		for (String srcDir : srcDirs)
+			this.srcDirs.add(normalizeDir(srcDir));
+	}
+
+	/**
+	 * @return the commit id of the served revision
+	 */
+	public String getRevision() {
+		return revision;
+	}
+
+	@Override
+	public URL getResource(String name) {
+		URL url = findResource(name);
+		return url != null ? url : super.getResource(name);
+	}
+
+	@Override
+	public Enumeration<URL> getResources(String name) throws IOException {
+		List<URL> urls = Collections.list(findResources(name));
+		ClassLoader parent = getParent();
+		urls.addAll(Collections.list(parent != null ? parent.getResources(name) : ClassLoader.getSystemResources(name)));
+		return Collections.enumeration(urls);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		for (String srcDir : srcDirs) {
+			URL url = toURL(srcDir + trimLeadingSlash(name));
+			if (url != null)
+				return url;
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+		for (String srcDir : srcDirs) {
+			URL url = toURL(srcDir + trimLeadingSlash(name));
+			if (url != null)
+				urls.add(url);
+		}
+		return Collections.enumeration(urls);
+	}
+
+	private URL toURL(String path) {
+		if (!blobs.containsKey(path))
+			return null;
+		try {
+			return new URL(PROTOCOL, null, -1, "/" + path, handler);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private static String normalizeDir(String dir) {
+		String normalized = dir.replace('\\', '/');
+		while (normalized.startsWith("./"))
+			normalized = normalized.substring(2);
+		normalized = trimLeadingSlash(normalized);
+		if (normalized.equals(".") || normalized.length() == 0)
+			return "";
+		return normalized.endsWith("/") ? normalized : normalized + "/";
+	}
+
+	private static String trimLeadingSlash(String path) {
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	/**
+	 * Opens the blobs of the revision.
+	 */
+	private final class BlobURLStreamHandler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection(final URL url) throws IOException {
+			final String blobId = blobs.get(trimLeadingSlash(url.getPath()));
+			if (blobId == null)
+				throw new FileNotFoundException(url + " does not exist in revision " + revision);
+
+			return new URLConnection(url) {
+				@Override
+				public void connect() {
+					connected = true;
+				}
+
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return new ByteArrayInputStream(repository.readBlob(blobId));
+				}
+
+				@Override
+				public int getContentLength() {
+					try {
+						return repository.readBlob(blobId).length;
+					} catch (IOException e) {
+						return -1;
+					}
+				}
+			};
+		}
+	}
+}
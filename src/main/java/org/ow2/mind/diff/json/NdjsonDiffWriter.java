@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2014 Schneider-Electric
+ *
+ * This file is part of "Mind Compiler" is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact: mind@ow2.org
+ *
+ * Authors: Stephane Seyvoz
+ * Contributors:
+ */
+
+package org.ow2.mind.diff.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.objectweb.fractal.adl.ADLException;
+import org.objectweb.fractal.adl.Definition;
+import org.objectweb.fractal.adl.Loader;
+import org.objectweb.fractal.adl.interfaces.Interface;
+import org.objectweb.fractal.adl.interfaces.InterfaceContainer;
+import org.ow2.mind.adl.ast.ASTHelper;
+import org.ow2.mind.adl.ast.Binding;
+import org.ow2.mind.adl.ast.BindingContainer;
+import org.ow2.mind.adl.ast.Component;
+import org.ow2.mind.adl.ast.ComponentContainer;
+import org.ow2.mind.adl.ast.ImplementationContainer;
+import org.ow2.mind.adl.ast.MindInterface;
+import org.ow2.mind.adl.ast.Source;
+import org.ow2.mind.diff.ArchitecturesComparator;
+import org.ow2.mind.diff.DiffHelper;
+import org.ow2.mind.diff.DiffStatistics;
+import org.ow2.mind.diff.dot.DumpDotGenerator;
+
+import com.google.inject.Inject;
+
+/**
+ * Streams the diff tree as newline-delimited JSON: one record per line, written while walking
+ * the tree once, depth-first. Memory does not depend on the size of the tree, and no file is written per instance.
+ *
+ * The first record sums the diff up:
+ * <pre>{"kind":"diff","base":"pkg.Base","head":"pkg.Head","status":"different"}</pre>
+ * Then each instance, starting with the top-level, is followed by the records of its content:
+ * <pre>
+ * {"path":"TopLevel.a","kind":"component","status":"changed","definition":"pkg.A2","baseDefinition":"pkg.A1"}
+ * {"path":"TopLevel.a","kind":"interface","status":"new","name":"s","role":"server","signature":"pkg.I"}
+ * {"path":"TopLevel.a","kind":"binding","status":"old","from":"b.c","to":"this.c"}
+ * {"path":"TopLevel.a","kind":"source","status":"changed","name":"pkg/a.c"}
+ * </pre>
+ * Statuses are "unchanged", "old" (BASE only), "new" (HEAD only) and "changed" (definition, signature or content).
+ * Component records also hold "nature":"now-primitive" or "now-composite" when the nature changed.
+ */
+public class NdjsonDiffWriter {
+
+	/** Kind of the first record */
+	public static final String KIND_DIFF = "diff";
+	public static final String KIND_COMPONENT = "component";
+	public static final String KIND_INTERFACE = "interface";
+	public static final String KIND_BINDING = "binding";
+	public static final String KIND_SOURCE = "source";
+
+	public static final String STATUS_UNCHANGED = "unchanged";
+	public static final String STATUS_OLD = "old";
+	public static final String STATUS_NEW = "new";
+	public static final String STATUS_CHANGED = "changed";
+
+	@Inject
+	protected Loader adlLoaderItf;
+
+	private Map<Object, Object> baseContext;
+	private Map<Object, Object> headContext;
+
+	private Writer out;
+
+	/** Counts of the resolved definitions, null when not counted */
+	private DiffStatistics statistics = null;
+
+	/** Path of the top-level instance, prefix of all the paths */
+	private String topLevelName = DumpDotGenerator.TOP_LEVEL_NAME;
+
+	/** Deepest level of written instances, the top-level being at level 0 */
+	private int maxDepth = ArchitecturesComparator.UNLIMITED_DEPTH;
+
+	/** Reused for every record */
+	private final StringBuilder record = new StringBuilder(256);
+
+	/**
+	 * @param topLevelName the path of the top-level instance
+	 * (e.g. "TopLevel.comm.stack" when only the sub-tree of this instance is compared)
+	 */
+	public void setTopLevelName(String topLevelName) {
+		this.topLevelName = topLevelName;
+	}
+
+	/**
+	 * @param maxDepth the deepest level of written instances, the top-level being at level 0:
+	 * only the component records of the deeper sub-components are written.
+	 * ArchitecturesComparator.UNLIMITED_DEPTH to write the whole tree.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param statistics the statistics of the diff, counting the definitions resolved, null not to count anything
+	 */
+	public void setStatistics(DiffStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Write the records of a diff tree.
+	 * @param definition the diff definition, as returned by ArchitecturesComparator.compareDefinitionTrees
+	 * @param baseName the name of the BASE definition
+	 * @param headName the name of the HEAD definition
+	 * @param diffStatus the global status of the diff, for the first record
+	 * @param baseContext
+	 * @param headContext
+	 * @param out where to write the records, not closed
+	 * @throws IOException
+	 * @throws ADLException when a definition of an old or new sub-tree can not be loaded
+	 */
+	public void write(Definition definition, String baseName, String headName, String diffStatus,
+			Map<Object, Object> baseContext, Map<Object, Object> headContext, Writer out) throws IOException, ADLException {
+		this.baseContext = baseContext;
+		this.headContext = headContext;
+		this.out = out;
+
+		startRecord(null, KIND_DIFF, null);
+		appendField("base", baseName);
+		appendField("head", headName);
+		appendField("status", diffStatus);
+		endRecord();
+
+		startRecord(topLevelName, KIND_COMPONENT, baseName.equals(headName) ? STATUS_UNCHANGED : STATUS_CHANGED);
+		appendField("definition", headName);
+		if (!baseName.equals(headName))
+			appendField("baseDefinition", baseName);
+		appendNature(definition);
+		endRecord();
+
+		writeContent(definition, topLevelName, DiffHelper.NOT_INHERITED, 0);
+
+		this.out = null;
+	}
+
+	/**
+	 * @param status the status of the instance sub-tree (see DiffHelper.getInheritedStatus)
+	 * @param depth the level of the instance, the top-level being at level 0
+	 */
+	private void writeContent(Definition definition, String path, int status, int depth) throws IOException, ADLException {
+		if (definition instanceof InterfaceContainer)
+			for (Interface itf : ((InterfaceContainer) definition).getInterfaces()) {
+				MindInterface mindItf = (MindInterface) itf;
+				startRecord(path, KIND_INTERFACE, toString(status | DiffHelper.getStatus(itf)));
+				appendField("name", mindItf.getName());
+				appendField("role", mindItf.getRole());
+				appendField("signature", mindItf.getSignature());
+				endRecord();
+			}
+
+		// not compared: only its interfaces are known
+		if ((DiffHelper.getStatus(definition) & (DiffHelper.DIFF_CACHED | DiffHelper.DIFF_TRUNCATED)) != 0)
+			return;
+
+		if (definition instanceof ImplementationContainer)
+			for (Source source : ((ImplementationContainer) definition).getSources()) {
+				startRecord(path, KIND_SOURCE, toString(status | DiffHelper.getStatus(source)));
+				appendField("name", source.getPath());
+				endRecord();
+			}
+
+		if (definition instanceof BindingContainer)
+			for (Binding binding : ((BindingContainer) definition).getBindings()) {
+				startRecord(path, KIND_BINDING, toString(status | DiffHelper.getStatus(binding)));
+				appendField("from", binding.getFromComponent() + "." + binding.getFromInterface());
+				appendField("to", binding.getToComponent() + "." + binding.getToInterface());
+				endRecord();
+			}
+
+		if (ASTHelper.isComposite(definition))
+			for (Component component : ((ComponentContainer) definition).getComponents())
+				writeComponent(component, path + "." + component.getName(), status, depth + 1);
+	}
+
+	private void writeComponent(Component component, String path, int inheritedStatus, int depth) throws IOException, ADLException {
+		// old and new sub-trees are only resolved when walked down
+		int status = DiffHelper.getInheritedStatus(component, inheritedStatus);
+		Definition definition;
+		if (status == DiffHelper.INHERITED_OLD)
+			definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, baseContext);
+		else
+			definition = ASTHelper.getResolvedDefinition(component.getDefinitionReference(), adlLoaderItf, headContext);
+		if (statistics != null)
+			statistics.countDefinition(definition);
+
+		startRecord(path, KIND_COMPONENT, toString(status | DiffHelper.getStatus(component)));
+		String headDefinitionName = DiffHelper.getHeadDefinitionName(component);
+		appendField("definition", headDefinitionName != null ? headDefinitionName : definition.getName());
+		if (DiffHelper.hasSubCompDefChanged(component))
+			appendField("baseDefinition", DiffHelper.getBaseDefinitionName(component));
+		appendNature(definition);
+		endRecord();
+
+		// old and new sub-trees are not truncated by the comparison
+		if (depth <= maxDepth)
+			writeContent(definition, path, status, depth);
+	}
+
+	private static String toString(int status) {
+		if ((status & DiffHelper.OLD) != 0)
+			return STATUS_OLD;
+		if ((status & DiffHelper.NEW) != 0)
+			return STATUS_NEW;
+		if ((status & DiffHelper.CHANGED) != 0)
+			return STATUS_CHANGED;
+		return STATUS_UNCHANGED;
+	}
+
+	private void appendNature(Definition definition) {
+		if (DiffHelper.isNowPrimitive(definition))
+			appendField("nature", "now-primitive");
+		else if (DiffHelper.isNowComposite(definition))
+			appendField("nature", "now-composite");
+	}
+
+	private void startRecord(String path, String kind, String status) {
+		record.setLength(0);
+		record.append('{');
+		if (path != null)
+			appendField("path", path);
+		appendField("kind", kind);
+		if (status != null)
+			appendField("status", status);
+	}
+
+	private void appendField(String name, String value) {
+		if (value == null)
+			return;
+		if (record.length() > 1)
+			record.append(',');
+		appendString(name);
+		record.append(':');
+		appendString(value);
+	}
+
+	private void endRecord() throws IOException {
+		record.append("}\n");
+		out.append(record);
+	}
+
+	private void appendString(String value) {
+		record.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				record.append("\\\"");
+				break;
+			case '\\':
+				record.append("\\\\");
+				break;
+			case '\n':
+				record.append("\\n");
+				break;
+			case '\r':
+				record.append("\\r");
+				break;
+			case '\t':
+				record.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					record.append(String.format("\\u%04x", (int) c));
+				else
+					record.append(c);
+			}
+		}
+		record.append('"');
+	}
+}